@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pavarotti.core.api.Company;
+import org.pavarotti.core.components.ConcertHall;
+import org.pavarotti.core.throwable.TicketSoldException;
+
+/**
+ * Benchmarks of the sales and statistics of a Company.
+ * Run with "-prof gc" for the allocation rate.
+ * @author Ovelhas do Presépio
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompanyBenchmark {
+    @Param({"100", "1000"})
+    public int performances;
+    
+    @Param({"4"})
+    public int dates;
+    
+    @Param({"0.5"})
+    public double soldRatio;
+    
+    private Company core;
+    private ConcertHall hall;
+    private String[] labels;
+    
+    /**
+     * The position of each thread among the seats
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom();
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.core = Synthetic.company(this.performances, this.dates, this.soldRatio, 0, 42);
+        this.hall = this.core.getPerformances().get(0).getHall(0);
+        this.labels = new String[this.hall.getCapacity()];
+        for (int i = 0; i < this.labels.length; i++)
+            this.labels[i] = this.hall.getSeat(i);
+    }
+    
+    /**
+     * Sells a random seat, refunding it instead if it is already sold, so the
+     * ratio of sold seats stays the same along the benchmark
+     */
+    @Benchmark
+    public void sellTicket(Cursor c) throws Exception {
+        final String ID   = Synthetic.performanceID(c.random.nextInt(this.performances));
+        final int SEAT    = c.random.nextInt(this.hall.getCapacity());
+        final int INDEX   = c.random.nextInt(this.dates);
+        try {
+            this.core.sellTicket(ID, SEAT, INDEX);
+        } catch (TicketSoldException e) {
+            this.core.refundTicket(ID, SEAT, INDEX);
+        }
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public void sellTicketContended(Cursor c) throws Exception {
+        this.sellTicket(c);
+    }
+    
+    @Benchmark
+    public Integer searchTicket(Cursor c) {
+        return this.hall.searchTicket(this.labels[c.random.nextInt(this.labels.length)]);
+    }
+    
+    @Benchmark
+    public String mostWatchedPerformance() throws Exception {
+        return this.core.stats.mostWatchedPerformance();
+    }
+    
+    @Benchmark
+    public void revenueByPerformance(Blackhole bh) {
+        bh.consume(this.core.stats.getAnalytics().revenueByPerformance());
+    }
+}
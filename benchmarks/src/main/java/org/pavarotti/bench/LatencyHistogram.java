@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.bench;
+
+/**
+ * Histogram of latencies in the manner of HdrHistogram: values below 128 get a bucket
+ * each, and every power of two above that is split in 64 buckets, so any recorded value
+ * is reported within 1/64 (about 1.6%) of its true value. Recording is a single array
+ * increment; each thread records into its own histogram and they are added at the end.
+ * @author Ovelhas do Presépio
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR      = 2 * SUB_BUCKETS;
+    private static final int BUCKETS     = LINEAR + (64 - 7) * SUB_BUCKETS;
+    
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long max;
+    
+    /**
+     * @param value the value to record, from 0 on
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        this.counts[index(value)]++;
+        this.total++;
+        if (value > this.max)
+            this.max = value;
+    }
+    
+    /**
+     * @param other the histogram to add to this one
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            this.counts[i] += other.counts[i];
+        this.total += other.total;
+        this.max    = Math.max(this.max, other.max);
+    }
+    
+    /**
+     * @return the number of values recorded
+     */
+    public long getTotal() {
+        return this.total;
+    }
+    
+    /**
+     * @return the largest value recorded
+     */
+    public long getMax() {
+        return this.max;
+    }
+    
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return the value at the percentile (the highest value of its bucket), or 0 if empty
+     */
+    public long percentile(double percentile) {
+        if (this.total == 0) return 0;
+        final long RANK = Math.max(1, (long) Math.ceil(percentile / 100.0 * this.total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts[i];
+            if (seen >= RANK)
+                return Math.min(highest(i), this.max);
+        }
+        return this.max;
+    }
+    
+    /**
+     * @param value the value
+     * @return the bucket of the value
+     */
+    private static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        final int SHIFT = 64 - Long.numberOfLeadingZeros(value) - 7;
+        return LINEAR + (SHIFT - 1) * SUB_BUCKETS + (int) ((value >>> SHIFT) - SUB_BUCKETS);
+    }
+    
+    /**
+     * @param index the bucket
+     * @return the highest value of the bucket
+     */
+    private static long highest(int index) {
+        if (index < LINEAR) return index;
+        final int SHIFT = (index - LINEAR) / SUB_BUCKETS + 1;
+        final long LOWEST = (long) ((index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS) << SHIFT;
+        return LOWEST + (1L << SHIFT) - 1;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.bench;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pavarotti.core.components.Performance;
+import org.pavarotti.core.throwable.TicketNotSoldException;
+import org.pavarotti.core.throwable.TicketSoldException;
+import org.pavarotti.ui.controller.Program;
+import org.pavarotti.ui.controller.Version;
+import org.pavarotti.ui.intf.Controller;
+import org.pavarotti.ui.intf.Viewer;
+
+/**
+ * Headless viewer that drives box-office traffic through the Controller from many
+ * threads and reports the throughput and latency percentiles of each operation.
+ * The dataset is generated through the Controller the first time, and the files
+ * are those of the application, so it must be run in a directory of its own:
+ * 
+ *     java -cp benchmarks.jar org.pavarotti.bench.LoadDriver --threads 8 --seconds 30
+ *          --performances 1000 --dates 4 --sold 0.5 --mix sell=50,refund=30,search=15,stats=5
+ * 
+ * @author Ovelhas do Presépio
+ */
+public class LoadDriver implements Viewer {
+    /**
+     * The operations of the traffic
+     */
+    public enum Operation {
+        SELL, REFUND, SEARCH, STATS
+    }
+    
+    private static final Version VERSION = new Version(1, 0, 6, Version.Stage.Final);
+    private static final LocalDateTime FIRST_DATE = LocalDateTime.of(2015, 1, 1, 21, 0);
+    
+    private Controller control;
+    private int threads      = 4;
+    private int seconds      = 10;
+    private int performances = 100;
+    private int dates        = 4;
+    private double sold      = 0.5;
+    private final EnumMap<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private final AtomicLong errors   = new AtomicLong();    // shown by the controller, rejected refunds included
+    private final AtomicLong rejected = new AtomicLong();    // sales and refunds that did not go through
+    
+    /**
+     * The operations done and the latencies recorded by one thread
+     */
+    private class Worker {
+        final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        final SplittableRandom random;
+        final Operation[] wheel;           // the operations, repeated by their weight in the mix
+        
+        Worker(long seed) {
+            this.random = new SplittableRandom(seed);
+            ArrayList<Operation> ops = new ArrayList<>();
+            for (Operation op : Operation.values()) {
+                this.latencies.put(op, new LatencyHistogram());
+                for (int i = 0; i < mix.get(op); i++)
+                    ops.add(op);
+            }
+            this.wheel = ops.toArray(new Operation[0]);
+        }
+        
+        /**
+         * Runs operations until the deadline
+         * @param deadline the deadline, in System.nanoTime
+         */
+        Worker run(long deadline) {
+            long now = System.nanoTime();
+            while (now < deadline) {
+                final Operation OP = this.wheel[this.random.nextInt(this.wheel.length)];
+                this.execute(OP);
+                final long END = System.nanoTime();
+                this.latencies.get(OP).record(END - now);
+                now = END;
+            }
+            return this;
+        }
+        
+        /**
+         * @param op the operation to execute
+         */
+        void execute(Operation op) {
+            final String ID  = Synthetic.performanceID(this.random.nextInt(performances));
+            final int SEAT   = this.random.nextInt(200);
+            final int INDEX  = this.random.nextInt(dates);
+            try {
+                switch (op) {
+                    case SELL:
+                        if (!control.sellTicket(ID, SEAT, INDEX))
+                            rejected.incrementAndGet();
+                        break;
+                    case REFUND:
+                        if (!control.refundTicket(ID, SEAT, INDEX))
+                            rejected.incrementAndGet();
+                        break;
+                    case SEARCH:
+                        final LocalDateTime AFTER = FIRST_DATE.plusDays(this.random.nextInt(performances * dates));
+                        control.searchPerformanceByDate(AFTER, AFTER.plusDays(30));
+                        break;
+                    case STATS:
+                        if (this.random.nextBoolean())
+                            control.mostWatchedPerformance();
+                        else
+                            control.averageSpectators(ID);
+                        break;
+                }
+            } catch (TicketSoldException | TicketNotSoldException e) {
+                rejected.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * @param args the options of the driver
+     * @throws Exception 
+     */
+    public static void main(String[] args) throws Exception {
+        LoadDriver driver = new LoadDriver();
+        driver.parse(args);
+        Program app = new Program(VERSION);
+        app.addViewer(driver, "LOAD");
+        app.launch(new String[] {"--mode", "LOAD"});
+    }
+    
+    /**
+     * @param args the options of the driver
+     * @throws IllegalArgumentException
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        this.mix.put(Operation.SELL, 50);
+        this.mix.put(Operation.REFUND, 30);
+        this.mix.put(Operation.SEARCH, 15);
+        this.mix.put(Operation.STATS, 5);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String VALUE = args[i + 1];
+            switch (args[i]) {
+                case "--threads":      this.threads      = Integer.parseInt(VALUE);   break;
+                case "--seconds":      this.seconds      = Integer.parseInt(VALUE);   break;
+                case "--performances": this.performances = Integer.parseInt(VALUE);   break;
+                case "--dates":        this.dates        = Integer.parseInt(VALUE);   break;
+                case "--sold":         this.sold         = Double.parseDouble(VALUE); break;
+                case "--mix":
+                    for (Operation op : Operation.values())
+                        this.mix.put(op, 0);
+                    for (String part : VALUE.split(",")) {
+                        String[] kv = part.split("=");
+                        this.mix.put(Operation.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Missing value of " + args[args.length - 1]);
+    }
+    
+    /**
+     * Creates the performances missing from the dataset, with the ratio of seats sold
+     */
+    private void generate() {
+        final ArrayList<Performance> DATASET = Synthetic.performances(this.performances, this.dates, this.sold, 42);
+        int created = 0;
+        for (Performance p : DATASET) {
+            if (this.control.performanceIDExists(p.getID())) continue;
+            ArrayList<LocalDateTime> when = new ArrayList<>();
+            for (int d = 0; d < this.dates; d++)
+                when.add(p.getHall(d).getWhen());
+            this.control.newPerformance(p.getID(), p.getName(), when, p.getBasePrice(), null, null, new ArrayList<>(), new ArrayList<>());
+            for (int d = 0; d < this.dates; d++) {
+                ArrayList<String> seats = new ArrayList<>();
+                for (int s = 0; s < p.getHall(d).getCapacity(); s++)
+                    if (p.getHall(d).isSold(s))
+                        seats.add(p.getHall(d).getSeat(s));
+                try {
+                    if (!seats.isEmpty())
+                        this.control.sellTickets(p.getID(), d, seats);
+                } catch (TicketSoldException e) {
+                    this.errors.incrementAndGet();
+                }
+            }
+            created++;
+        }
+        System.out.printf("Dataset: %d performances (%d created), %d dates each.%n", this.performances, created, this.dates);
+    }
+    
+    /**
+     * Runs the traffic and reports it
+     * @throws Exception 
+     */
+    private void drive() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        this.errors.set(0);
+        this.rejected.set(0);
+        final long START    = System.nanoTime();
+        final long DEADLINE = START + this.seconds * 1_000_000_000L;
+        List<Future<Worker>> futures = new ArrayList<>();
+        for (int t = 0; t < this.threads; t++) {
+            final Worker W = new Worker(t);
+            futures.add(pool.submit(() -> W.run(DEADLINE)));
+        }
+        EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        for (Operation op : Operation.values())
+            latencies.put(op, new LatencyHistogram());
+        for (Future<Worker> f : futures)
+            for (Operation op : Operation.values())
+                latencies.get(op).add(f.get().latencies.get(op));
+        pool.shutdown();
+        final double ELAPSED = (System.nanoTime() - START) / 1e9;
+        
+        System.out.printf("%d threads, %.1f s, %d sales or refunds rejected, %d errors shown by the controller.%n",
+                this.threads, ELAPSED, this.rejected.get(), this.errors.get());
+        System.out.printf("%-8s %12s %12s %10s %10s %10s %10s%n", "op", "count", "ops/s", "p50 us", "p99 us", "p999 us", "max us");
+        LatencyHistogram all = new LatencyHistogram();
+        for (Operation op : Operation.values()) {
+            this.report(op.toString().toLowerCase(), latencies.get(op), ELAPSED);
+            all.add(latencies.get(op));
+        }
+        this.report("all", all, ELAPSED);
+    }
+    
+    /**
+     * @param name the name of the operation
+     * @param h the latencies of the operation, in nanoseconds
+     * @param elapsed the duration of the traffic, in seconds
+     */
+    private void report(String name, LatencyHistogram h, double elapsed) {
+        System.out.printf("%-8s %12d %12.0f %10.1f %10.1f %10.1f %10.1f%n", name, h.getTotal(), h.getTotal() / elapsed,
+                h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3, h.getMax() / 1e3);
+    }
+    
+    @Override
+    public void loadViewer() {
+    }
+    
+    @Override
+    public void launchViewer(String[] args) throws Exception {
+        this.generate();
+        this.drive();
+        this.control.stop();
+    }
+    
+    @Override
+    public void emergencyStop() {
+        System.exit(-1);
+    }
+    
+    @Override
+    public void bindController(Controller controller) {
+        this.control = controller;
+    }
+    
+    @Override
+    public void showHelp() {
+        System.out.println("LoadDriver [--threads N] [--seconds N] [--performances N] [--dates N] [--sold R] [--mix op=w,...]");
+    }
+    
+    @Override
+    public void showAbout() {
+        System.out.println("Pavarotti " + VERSION + " load driver");
+    }
+    
+    @Override
+    public void showInfo(String msg) {
+    }
+    
+    @Override
+    public void showMessage(String msg) {
+    }
+    
+    @Override
+    public void showWarning(String msg) {
+    }
+    
+    @Override
+    public void showError(String msg) {
+        this.errors.incrementAndGet();
+    }
+    
+    @Override
+    public void firstSetup() {
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.pavarotti.core.components.Performer;
+import org.pavarotti.core.components.Staff;
+
+/**
+ * Benchmarks of searching the staff by name.
+ * Run with "-prof gc" for the allocation rate.
+ * @author Ovelhas do Presépio
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StaffBenchmark {
+    @Param({"1000", "100000"})
+    public int members;
+    
+    private Staff<Performer> staff;
+    private String[] names;
+    
+    /**
+     * The names searched by each thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom();
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        this.staff = new Staff<>();
+        this.staff.insertAll(Synthetic.performers(this.members, 42));
+        SplittableRandom random = new SplittableRandom(7);
+        this.names = new String[1024];
+        for (int i = 0; i < this.names.length; i++)
+            this.names[i] = Synthetic.name(random);
+    }
+    
+    @Benchmark
+    public int search(Cursor c) {
+        return this.staff.search(this.names[c.random.nextInt(this.names.length)]);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.dma.io.Streamer;
+import org.openjdk.jmh.annotations.*;
+import org.pavarotti.core.components.Codecs;
+import org.pavarotti.core.components.Performance;
+
+/**
+ * Benchmarks of saving and loading the performances to and from a file.
+ * Run with "-prof gc" for the allocation rate.
+ * @author Ovelhas do Presépio
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamerBenchmark {
+    @Param({"100", "1000"})
+    public int performances;
+    
+    @Param({"4"})
+    public int dates;
+    
+    @Param({"0.5"})
+    public double soldRatio;
+    
+    private ArrayList<Performance> list;
+    private File file;
+    private Streamer<Performance> streamer;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.list = Synthetic.performances(this.performances, this.dates, this.soldRatio, 42);
+        this.file = File.createTempFile("perfshow", ".dat");
+        this.file.deleteOnExit();
+        this.streamer = new Streamer<>(this.file.getPath(), Codecs.PERFORMANCE);
+        this.streamer.saveToFile(this.list);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.file.delete();
+    }
+    
+    @Benchmark
+    public void saveToFile() throws IOException {
+        this.streamer.saveToFile(this.list);
+    }
+    
+    @Benchmark
+    public ArrayList<Performance> loadAllFromFile() throws IOException {
+        return this.streamer.loadAllFromFile();
+    }
+}
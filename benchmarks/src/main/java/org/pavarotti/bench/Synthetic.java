@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.bench;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+import org.pavarotti.core.api.Company;
+import org.pavarotti.core.components.ConcertHall;
+import org.pavarotti.core.components.Performance;
+import org.pavarotti.core.components.Performer;
+import org.pavarotti.core.intf.Person;
+
+/**
+ * Generator of synthetic companies for the benchmarks.
+ * The same seed always generates the same company.
+ * @author Ovelhas do Presépio
+ */
+public class Synthetic {
+    private static final String[] FIRST = {
+        "Maria", "João", "Ana", "José", "Beatriz", "Luís", "Inês", "Pedro", "Carla", "Rui",
+        "Sofia", "Tiago", "Marta", "Nuno", "Rita", "Paulo", "Joana", "Miguel", "Teresa", "André"
+    };
+    private static final String[] LAST = {
+        "Silva", "Santos", "Ferreira", "Pereira", "Oliveira", "Costa", "Rodrigues", "Martins",
+        "Jesus", "Sousa", "Fernandes", "Gonçalves", "Gomes", "Lopes", "Marques", "Alves"
+    };
+    private static final String[] OPERAS = {
+        "Tosca", "La Bohème", "Madama Butterfly", "Turandot", "Aida", "La Traviata",
+        "Rigoletto", "Otello", "Carmen", "Don Giovanni", "Le Nozze di Figaro", "Norma"
+    };
+    private static final LocalDateTime FIRST_DATE = LocalDateTime.of(2015, 1, 1, 21, 0);
+    
+    /**
+     * @param index the index of the performance
+     * @return the ID of the performance
+     */
+    public static String performanceID(int index) {
+        return String.format("P%06d", index);
+    }
+    
+    /**
+     * @param performances the number of performances
+     * @param dates the number of dates (halls) of each performance
+     * @param soldRatio the ratio of sold seats, from 0 to 1
+     * @param seed the seed of the generator
+     * @return the performances
+     */
+    public static ArrayList<Performance> performances(int performances, int dates, double soldRatio, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        final long NOW = System.currentTimeMillis();
+        ArrayList<Performance> list = new ArrayList<>(performances);
+        for (int i = 0; i < performances; i++) {
+            ArrayList<LocalDateTime> when = new ArrayList<>(dates);
+            for (int d = 0; d < dates; d++)
+                when.add(FIRST_DATE.plusDays((long) i * dates + d));
+            Performance p = new Performance(performanceID(i), OPERAS[i % OPERAS.length], 10.0 + random.nextInt(40), when);
+            for (ConcertHall h : p.getHall())
+                for (int s = 0; s < h.getCapacity(); s++)
+                    if (random.nextDouble() < soldRatio)
+                        h.markSold(s, NOW - random.nextLong(90L * 86400000L));
+            list.add(p);
+        }
+        return list;
+    }
+    
+    /**
+     * @param members the number of performers
+     * @param seed the seed of the generator
+     * @return the performers, with IDs from 1 on
+     */
+    public static ArrayList<Performer> performers(int members, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        ArrayList<Performer> list = new ArrayList<>(members);
+        for (int i = 0; i < members; i++)
+            list.add(new Performer(i + 1, name(random), Person.Gender.values()[random.nextInt(Person.Gender.values().length)],
+                    LocalDate.of(1950, 1, 1).plusDays(random.nextInt(18000)), "Cantor",
+                    LocalDate.of(2000, 1, 1).plusDays(random.nextInt(7000))));
+        return list;
+    }
+    
+    /**
+     * @param random the generator
+     * @return a random full name
+     */
+    public static String name(SplittableRandom random) {
+        return FIRST[random.nextInt(FIRST.length)] + " " + LAST[random.nextInt(LAST.length)] + " " + LAST[random.nextInt(LAST.length)];
+    }
+    
+    /**
+     * @param performances the number of performances
+     * @param dates the number of dates (halls) of each performance
+     * @param soldRatio the ratio of sold seats, from 0 to 1
+     * @param members the number of singers
+     * @param seed the seed of the generator
+     * @return a company without files, so nothing is journaled
+     * @throws IOException 
+     */
+    public static Company company(int performances, int dates, double soldRatio, int members, long seed) throws IOException {
+        Company core = new Company("Companhia Sintética", "Lisboa", "Portugal");
+        core.setPerformances(performances(performances, dates, soldRatio, seed));
+        core.singers.insertAll(performers(members, seed));
+        return core;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dma.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers to write compact binary data: variable length integers and nullable strings.
+ * @author Ovelhas do Presépio
+ */
+public class Binary {
+    /**
+     * Writes a non negative integer in 1 to 5 bytes, 7 bits per byte
+     * @param out the output
+     * @param value the value
+     * @throws IOException 
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    /**
+     * @param in the input
+     * @return the integer written by writeVarInt
+     * @throws IOException 
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Malformed variable length integer.");
+    }
+    
+    /**
+     * Writes a non negative long in 1 to 10 bytes, 7 bits per byte
+     * @param out the output
+     * @param value the value
+     * @throws IOException 
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+    
+    /**
+     * @param in the input
+     * @return the long written by writeVarLong
+     * @throws IOException 
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Malformed variable length integer.");
+    }
+    
+    /**
+     * Writes a signed long so that values close to zero take few bytes
+     * @param out the output
+     * @param value the value
+     * @throws IOException 
+     */
+    public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+    
+    /**
+     * @param in the input
+     * @return the long written by writeSignedVarLong
+     * @throws IOException 
+     */
+    public static long readSignedVarLong(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * Writes a string as UTF-8, which may be null
+     * @param out the output
+     * @param s the string
+     * @throws IOException 
+     */
+    public static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+    
+    /**
+     * @param in the input
+     * @return the string written by writeString
+     * @throws IOException 
+     */
+    public static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0)
+            return null;
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dma.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts objects of a given type to and from a binary representation.
+ * The version is written once per file, so that a codec can keep reading
+ * the files written by its older versions.
+ * @param <T> the type of the objects
+ * @author Ovelhas do Presépio
+ */
+public interface Codec<T> {
+    /**
+     * @return the version of the format written by this codec
+     */
+    abstract int getVersion();
+    
+    /**
+     * @param out the output to write to
+     * @param t the object to write
+     * @throws IOException 
+     */
+    abstract void write(DataOutput out, T t) throws IOException;
+    
+    /**
+     * @param in the input to read from
+     * @param version the version of the format the object was written with
+     * @return the object read
+     * @throws IOException 
+     */
+    abstract T read(DataInput in, int version) throws IOException;
+}
@@ -17,16 +17,58 @@
 package org.dma.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 /**
- * 
+ * Saves and loads lists of objects to and from a file.
+ * By default objects are saved with Java serialization; when a codec is set they
+ * are saved in the compact binary format of the codec instead. Files written with
+ * Java serialization are still read when a codec is set, so they are migrated to
+ * the binary format the next time they are saved.
+ * With a chunk size set, the binary format is split in chunks of that many objects,
+ * each preceded by its length, so that the chunks are decoded in parallel on load.
+ * Files are never overwritten in place: they are written to a temporary file, synced
+ * to the disk and renamed over the old one, so a crash while saving leaves the old file
+ * intact. A footer with the length and checksum of the contents is verified on load;
+ * files saved before it existed are still read.
  * @author Ovelhas do Presépio
  */
 public class Streamer<T> {
+    private static final int MAGIC        = 0x50565254;     // "PVRT"
+    private static final int MAGIC_CHUNKED = 0x50565243;    // "PVRC"
+    private static final int FOOTER       = 0x50564654;     // "PVFT"
+    private static final int FOOTER_BYTES = 16;             // magic, checksum and length
+    private static final int CHECK_BYTES  = 64 * 1024;      // read at a time to verify the checksum
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    /**
+     * Writes the contents of a file
+     */
+    @FunctionalInterface
+    private interface Contents {
+        /**
+         * @param out the output, which must be flushed but not closed
+         * @throws IOException 
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+    
     private String fname;
-    private ObjectOutputStream objOut;
-    private ObjectInputStream objIn;
+    private Codec<T> codec;
+    private int chunkSize;          // objects per chunk of the binary format, 0 for a single run
     
     /**
      * @return the file name
@@ -39,7 +81,7 @@ public class Streamer<T> {
      * @param fname the file name
      */
     public void setFileName(String fname) {
-        this.fname = fname;
+        this.fname     = fname;
     }
     
     /**
@@ -51,17 +93,64 @@ public class Streamer<T> {
         return this;
     }
     
+    /**
+     * @return the codec, or null if Java serialization is used
+     */
+    public Codec<T> getCodec() {
+        return this.codec;
+    }
+    
+    /**
+     * @param codec the codec to save with, or null to use Java serialization
+     */
+    public void setCodec(Codec<T> codec) {
+        this.codec = codec;
+    }
+    
+    /**
+     * @return the objects per chunk of the binary format, or 0 if it is not chunked
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+    
+    /**
+     * @param chunkSize the objects per chunk of the binary format, or 0 not to chunk it
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 0)
+            throw new IllegalArgumentException("Negative chunk size.");
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * @param codec the codec to save with, or null to use Java serialization
+     * @return the instance itself
+     */
+    public Streamer<T> withCodec(Codec<T> codec) {
+        this.setCodec(codec);
+        return this;
+    }
+    
     /**
      * Save contents of a Serializable object to the specified file
      * @param list the list of objects to be saved
      * @throws IOException
      */
     public void saveToFile(ArrayList<T> list) throws IOException {
-        this.openOutputStream();
-        // this.objOut.reset();
-        objOut.writeObject(list);
-        objOut.flush();
-        this.closeOutputStream();
+        if (this.codec != null) {
+            this.writeAtomically(out -> {
+                DataOutputStream data = new DataOutputStream(out);
+                this.encode(data, list);
+                data.flush();
+            });
+            return;
+        }
+        this.writeAtomically(out -> {
+            ObjectOutputStream objOut = new ObjectOutputStream(out);
+            objOut.writeObject(list);
+            objOut.flush();
+        });
     }
     
     /**
@@ -71,28 +160,69 @@ public class Streamer<T> {
      * @throws IOException 
      */
     public void saveToFile(T t) throws IOException {
-        this.openOutputStream();
-        // this.objOut.reset();
-        objOut.writeObject(t);
-        objOut.flush();
-        this.closeOutputStream();
+        if (this.codec != null) {
+            ArrayList<T> list = new ArrayList<>(1);
+            list.add(t);
+            this.saveToFile(list);
+            return;
+        }
+        this.writeAtomically(out -> {
+            ObjectOutputStream objOut = new ObjectOutputStream(out);
+            objOut.writeObject(t);
+            objOut.flush();
+        });
     }
     
     /**
-     * @return true if load successful, false if exception thrown
+     * Serializes a list of objects to memory, so that it can be saved later by saveBytesToFile
+     * @param list the list of objects to be serialized
+     * @return the serialized list
+     * @throws IOException 
+     */
+    public byte[] toBytes(ArrayList<T> list) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (this.codec != null) {
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                this.encode(out, list);
+            }
+        } else {
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(list);
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Saves an already serialized object or list of objects to the specified file
+     * @param data the serialized data, as given by toBytes
      * @throws IOException 
      */
+    public void saveBytesToFile(byte[] data) throws IOException {
+        this.writeAtomically(out -> {
+            out.write(data);
+            out.flush();
+        });
+    }
+    
+    /**
+     * @return true if load successful, false if exception thrown
+     * @throws IOException if the file is damaged or cannot be read
+     */
     public ArrayList<T> loadAllFromFile() throws IOException {
         ArrayList<T> list = new ArrayList<>();
-        try {
-            this.openInputStream();
-            list = (ArrayList<T>) objIn.readObject();
+        try (BufferedInputStream in = this.openVerified()) {
+            if (in == null)
+                return list;
+            final int FORMAT = this.readMagic(in);
+            if (FORMAT != 0)
+                return this.decode(new DataInputStream(in), FORMAT);
+            list = (ArrayList<T>) new ObjectInputStream(in).readObject();
         } catch (ClassNotFoundException e) {
-            return list;
+            throw new IOException(String.format("%s holds an unknown class (%s).", this.fname, e.getMessage()), e);
         } catch (EOFException e) {
-            return list;
+            throw new StreamCorruptedException(String.format("%s is truncated.", this.fname));
         }
-        this.closeInputStream();
         return list;
     }
     
@@ -102,66 +232,333 @@ public class Streamer<T> {
      */
     public T loadFromFile() throws IOException {
         T t;
-        try {
-            this.openInputStream();
-            t = (T) objIn.readObject();
+        try (BufferedInputStream in = this.openVerified()) {
+            if (in == null)
+                return null;
+            final int FORMAT = this.readMagic(in);
+            if (FORMAT != 0) {
+                ArrayList<T> list = this.decode(new DataInputStream(in), FORMAT);
+                return list.isEmpty() ? null : list.get(0);
+            }
+            t = (T) new ObjectInputStream(in).readObject();
         } catch (ClassNotFoundException e) {
-            return null;
+            throw new IOException(String.format("%s holds an unknown class (%s).", this.fname, e.getMessage()), e);
         } catch (EOFException e) {
-            return null;
+            throw new StreamCorruptedException(String.format("%s is truncated.", this.fname));
         }
-        this.closeInputStream();
         return t;
     }
     
     /**
-     * @return true if the file was successfully created, and false otherwise
-     * @throws IOException
-     * @throws SecurityException
+     * Writes the contents and their footer to a temporary file, syncs it to the disk
+     * and renames it over the file, so the file is either the old one or the new one
+     * @param contents what to write
+     * @throws IOException 
      */
-    public boolean createFile() throws IOException, SecurityException {
-        if (fname.equals("")) throw new IOException("File name not defined");
-        File f = new File(System.getProperty("user.dir"), this.fname);
-        return f.createNewFile();
+    private void writeAtomically(Contents contents) throws IOException {
+        final Path TARGET = new File(this.fname).getAbsoluteFile().toPath();
+        final Path TEMP   = TARGET.resolveSibling(TARGET.getFileName() + TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(TEMP,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                CRC32 crc = new CRC32();
+                contents.writeTo(new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+                final long LENGTH = channel.position();
+                ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+                footer.putInt(FOOTER).putInt((int) crc.getValue()).putLong(LENGTH);
+                footer.flip();
+                while (footer.hasRemaining())
+                    channel.write(footer);
+                channel.force(true);
+            }
+            try {
+                Files.move(TEMP, TARGET, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(TEMP, TARGET, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(TEMP);
+            throw e;
+        }
+        syncDirectory(TARGET.getParent());
+    }
+    
+    /**
+     * Syncs a directory, so a file renamed in it survives a crash.
+     * Not every system can open a directory, in which case this does nothing.
+     * @param dir the directory
+     */
+    private static void syncDirectory(Path dir) {
+        if (dir == null) return;
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // the rename is still atomic, only its durability is up to the system
+        }
+    }
+    
+    /**
+     * Opens the file and verifies its footer, if it has one.
+     * The checksum is computed by streaming the contents through a small buffer before
+     * they are decoded, as the decoders size what they read from the contents; both
+     * reads go through the same channel, so a save renaming a new file meanwhile is not seen.
+     * @return the contents of the file without the footer, or null if the file is empty
+     * @throws IOException if the file cannot be read or its checksum does not match
+     */
+    private BufferedInputStream openVerified() throws IOException {
+        final FileChannel CHANNEL = FileChannel.open(new File(this.fname).toPath(), StandardOpenOption.READ);
+        try {
+            final long SIZE = CHANNEL.size();
+            if (SIZE == 0) {
+                CHANNEL.close();
+                return null;
+            }
+            long length = SIZE;
+            if (SIZE >= FOOTER_BYTES) {
+                ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+                while (footer.hasRemaining())
+                    if (CHANNEL.read(footer, SIZE - FOOTER_BYTES + footer.position()) < 0)
+                        throw new EOFException();
+                footer.flip();
+                final int MAGIC_READ = footer.getInt();
+                final int CHECKSUM   = footer.getInt();
+                final long LENGTH    = footer.getLong();
+                if (MAGIC_READ == FOOTER && LENGTH == SIZE - FOOTER_BYTES) {
+                    if (checksum(CHANNEL, LENGTH) != CHECKSUM)
+                        throw new StreamCorruptedException(String.format("%s is damaged (checksum mismatch).", this.fname));
+                    length = LENGTH;
+                }
+            }
+            return new BufferedInputStream(new LimitedInputStream(Channels.newInputStream(CHANNEL), length));
+        } catch (IOException | RuntimeException e) {
+            CHANNEL.close();
+            throw e;
+        }
     }
     
     /**
-     * Closes input stream
+     * @param channel the channel of the file
+     * @param length the number of bytes from the start of the file to check
+     * @return the CRC32 checksum of the bytes
      * @throws IOException 
      */
-    private void closeInputStream() throws IOException {
-        this.objIn.close();
+    private static int checksum(FileChannel channel, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(CHECK_BYTES, length));
+        for (long position = 0; position < length; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+            final int READ = channel.read(buffer, position);
+            if (READ < 0)
+                throw new EOFException();
+            buffer.flip();
+            crc.update(buffer);
+            position += READ;
+        }
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * An input that ends after a given number of bytes, leaving out the footer of a file
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        
+        /**
+         * @param in the input
+         * @param length the number of bytes to read from it
+         */
+        LimitedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (this.remaining == 0) return -1;
+            final int B = super.read();
+            if (B >= 0) this.remaining--;
+            return B;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (this.remaining == 0) return -1;
+            final int READ = super.read(b, off, (int) Math.min(len, this.remaining));
+            if (READ > 0) this.remaining -= READ;
+            return READ;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            final long SKIPPED = super.skip(Math.min(n, this.remaining));
+            this.remaining -= SKIPPED;
+            return SKIPPED;
+        }
+        
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), this.remaining);
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
     
     /**
-     * Closes output stream
+     * Writes the header and the list with the codec
+     * @param out the output
+     * @param list the list of objects
      * @throws IOException 
      */
-    private void closeOutputStream() throws IOException {
-        this.objOut.close();
+    private void encode(DataOutputStream out, ArrayList<T> list) throws IOException {
+        if (this.chunkSize > 0) {
+            this.encodeChunked(out, list);
+            return;
+        }
+        out.writeInt(MAGIC);
+        Binary.writeVarInt(out, this.codec.getVersion());
+        Binary.writeVarInt(out, list.size());
+        for (T t : list)
+            this.codec.write(out, t);
     }
     
     /**
-     * Opens input stream with the previously defined file name
+     * Writes the header and the list with the codec, in chunks of chunkSize objects
+     * each preceded by their number and length in bytes
+     * @param out the output
+     * @param list the list of objects
      * @throws IOException 
      */
-    private void openInputStream() throws IOException {
-        this.objIn = new ObjectInputStream(new FileInputStream(this.fname));
+    private void encodeChunked(DataOutputStream out, ArrayList<T> list) throws IOException {
+        out.writeInt(MAGIC_CHUNKED);
+        Binary.writeVarInt(out, this.codec.getVersion());
+        Binary.writeVarInt(out, list.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream chunk = new DataOutputStream(bytes);
+        for (int from = 0; from < list.size(); from += this.chunkSize) {
+            final int TO = Math.min(from + this.chunkSize, list.size());
+            bytes.reset();
+            for (int i = from; i < TO; i++)
+                this.codec.write(chunk, list.get(i));
+            chunk.flush();
+            Binary.writeVarInt(out, TO - from);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
     }
     
     /**
-     * Opens output stream with the previously defined file name
+     * Reads a list written by encode, after its magic number
+     * @param in the input
+     * @param format the magic number read
+     * @return the list of objects
      * @throws IOException 
      */
-    private void openOutputStream() throws IOException {
-        this.objOut = new ObjectOutputStream(new FileOutputStream(this.fname));
+    private ArrayList<T> decode(DataInputStream in, int format) throws IOException {
+        if (this.codec == null)
+            throw new IOException(String.format("No codec to read %s.", this.fname));
+        final int VERSION = Binary.readVarInt(in);
+        if (VERSION > this.codec.getVersion())
+            throw new IOException(String.format("%s was written by a newer version (format %d).", this.fname, VERSION));
+        final int SIZE = Binary.readVarInt(in);
+        if (format == MAGIC_CHUNKED)
+            return this.decodeChunked(in, VERSION, SIZE);
+        ArrayList<T> list = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++)
+            list.add(this.codec.read(in, VERSION));
+        return list;
+    }
+    
+    /**
+     * Reads the chunks written by encodeChunked and decodes them in parallel
+     * @param in the input, after the header
+     * @param version the version of the format
+     * @param size the number of objects
+     * @return the list of objects, in the order they were written
+     * @throws IOException 
+     */
+    private ArrayList<T> decodeChunked(DataInputStream in, int version, int size) throws IOException {
+        ArrayList<Integer> counts = new ArrayList<>();
+        ArrayList<byte[]> chunks  = new ArrayList<>();
+        for (int read = 0; read < size; ) {
+            final int COUNT = Binary.readVarInt(in);
+            if (COUNT <= 0)
+                throw new StreamCorruptedException(String.format("Empty chunk in %s.", this.fname));
+            byte[] chunk = new byte[in.readInt()];
+            in.readFully(chunk);
+            counts.add(COUNT);
+            chunks.add(chunk);
+            read += COUNT;
+        }
+        final List<List<T>> DECODED;
+        try {
+            DECODED = IntStream.range(0, chunks.size())
+                    .parallel()
+                    .mapToObj(c -> {
+                        DataInputStream data = new DataInputStream(new ByteArrayInputStream(chunks.get(c)));
+                        ArrayList<T> part = new ArrayList<>(counts.get(c));
+                        try {
+                            for (int i = 0; i < counts.get(c); i++)
+                                part.add(this.codec.read(data, version));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return part;
+                    })
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        ArrayList<T> list = new ArrayList<>(size);
+        for (List<T> part : DECODED)
+            list.addAll(part);
+        return list;
+    }
+    
+    /**
+     * Checks for the magic number of the binary format, consuming it if found
+     * @param in the input, which must support mark
+     * @return the magic number of the binary format, or 0 if the input is Java serialization
+     * @throws IOException 
+     */
+    private int readMagic(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b == -1) {
+                in.reset();
+                return 0;
+            }
+            magic = (magic << 8) | b;
+        }
+        if (magic == MAGIC || magic == MAGIC_CHUNKED)
+            return magic;
+        in.reset();
+        return 0;
+    }
+    
+    /**
+     * @return true if the file was successfully created, and false otherwise
+     * @throws IOException
+     * @throws SecurityException
+     */
+    public boolean createFile() throws IOException, SecurityException {
+        if (fname.equals("")) throw new IOException("File name not defined");
+        File f = new File(System.getProperty("user.dir"), this.fname);
+        return f.createNewFile();
     }
     
     /**
      * Constructor of the class
      */
     public Streamer() {
-        this.fname = "";
+        this.fname     = "";
+        this.codec     = null;
+        this.chunkSize = 0;
     }
     
     /**
@@ -169,6 +566,19 @@ public class Streamer<T> {
      * @param fname the file name
      */
     public Streamer(String fname) {
-        this.fname = fname;
+        this.fname     = fname;
+        this.codec     = null;
+        this.chunkSize = 0;
+    }
+    
+    /**
+     * Constructor of the class
+     * @param fname the file name
+     * @param codec the codec to save with
+     */
+    public Streamer(String fname, Codec<T> codec) {
+        this.fname     = fname;
+        this.codec     = codec;
+        this.chunkSize = 0;
     }
 }
@@ -17,22 +17,58 @@
 package org.pavarotti.core.api;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.DoubleUnaryOperator;
 import java.io.*;
 import java.time.LocalDateTime;
 
 import org.dma.io.Streamer;
 import org.pavarotti.core.components.*;
+import org.pavarotti.core.intf.CompanyListener;
 import org.pavarotti.core.throwable.*;
 import org.pavarotti.core.stat.*;
 import org.dma.io.Disk;
+import org.util.Metrics;
 
 /**
- * This is an API to the core of the application
+ * This is an API to the core of the application.
+ * Tickets may be sold and refunded from several threads at once: seats are claimed
+ * atomically, and a striped lock per hall keeps the journal in the same order as the
+ * changes (single sales share it, refunds and multi-seat sales take it alone). Changes to the performances
+ * themselves are serialized on the company.
  * @author Ovelhas do Presépio
  */
 public class Company {    
-    private       ArrayList<Performance> performances;
-    private final Streamer<Performance>  perfstreamer;
+    private       ArrayList<Performance>       performances;     // sorted by first date
+    private final ConcurrentHashMap<String, Performance> performancesByID;
+    private final TreeMap<LocalDateTime, List<Performance>> performancesByDate;
+    private final HashMap<String, ArrayList<LocalDateTime>> indexedDates;   // dates under which each ID is indexed
+    private final Streamer<Performance>        perfstreamer;
+    private final Journal                      journal;
+    private final SeatFile                     seatfile;         // seats of the halls, in mapped mode
+    private       boolean                      mappedSeats;
+    private final ReentrantReadWriteLock[]     stripes;          // orders the changes of a hall in the journal
+    private final CopyOnWriteArrayList<CompanyListener> listeners;
+    private final Metrics                      metrics;          // persistence durations and ticket counts
+    
+    private ExecutorService persistence;        // saves snapshots in the background
+    private Future<?>       compaction;
+    private long            compactThreshold;
     
     public        CompanyInfo           info;
     private final Streamer<CompanyInfo> infostreamer;
@@ -52,9 +88,20 @@ public class Company {
         this.dancers      = new Staff<>();
         this.directors    = new Staff<>();
         this.performances = new ArrayList<>();
+        this.performancesByID = new ConcurrentHashMap<>();
+        this.performancesByDate = new TreeMap<>();
+        this.indexedDates     = new HashMap<>();
         this.perfstreamer = new Streamer<>();
+        this.journal      = new Journal();
+        this.seatfile     = new SeatFile();
+        this.stripes      = newStripes();
+        this.listeners    = new CopyOnWriteArrayList<>();
+        this.metrics      = new Metrics();
+        this.compactThreshold = DEFAULT_COMPACT_THRESHOLD;
         this.infostreamer = new Streamer<>();
         this.stats        = new Statistics(this);
+        this.useCodecs();
+        this.registerGauges();
     }
     
     /**
@@ -69,9 +116,20 @@ public class Company {
         this.dancers      = new Staff<>();
         this.directors    = new Staff<>();
         this.performances = new ArrayList<>();
+        this.performancesByID = new ConcurrentHashMap<>();
+        this.performancesByDate = new TreeMap<>();
+        this.indexedDates     = new HashMap<>();
         this.perfstreamer = new Streamer<>();
+        this.journal      = new Journal();
+        this.seatfile     = new SeatFile();
+        this.stripes      = newStripes();
+        this.listeners    = new CopyOnWriteArrayList<>();
+        this.metrics      = new Metrics();
+        this.compactThreshold = DEFAULT_COMPACT_THRESHOLD;
         this.infostreamer = new Streamer<>();
         this.stats        = new Statistics(this);
+        this.useCodecs();
+        this.registerGauges();
     }
     
     /**
@@ -87,11 +145,71 @@ public class Company {
         this.dancers      = new Staff<>();
         this.directors    = new Staff<>();
         this.performances = new ArrayList<>();
+        this.performancesByID = new ConcurrentHashMap<>();
+        this.performancesByDate = new TreeMap<>();
+        this.indexedDates     = new HashMap<>();
         this.perfstreamer = new Streamer<>();
+        this.journal      = new Journal();
+        this.seatfile     = new SeatFile();
+        this.stripes      = newStripes();
+        this.listeners    = new CopyOnWriteArrayList<>();
+        this.metrics      = new Metrics();
+        this.compactThreshold = DEFAULT_COMPACT_THRESHOLD;
         this.infostreamer = new Streamer<>();
         this.stats        = new Statistics(this);
+        this.useCodecs();
+        this.registerGauges();
+    }
+    
+    /**
+     * Registers the gauges of the company in its metrics
+     */
+    private void registerGauges() {
+        this.metrics.gauge("performances", () -> this.performancesByID.size());
+        this.metrics.gauge("journal.bytes", () -> this.journal.getSize());
+    }
+    
+    /**
+     * @return the metrics of the company, shared with whoever drives it
+     */
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+    
+    /**
+     * @return the locks shared by the halls, one per stripe
+     */
+    private static ReentrantReadWriteLock[] newStripes() {
+        ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new ReentrantReadWriteLock();
+        return locks;
+    }
+    
+    /**
+     * @param hall the hall
+     * @return the lock of the stripe of the hall
+     */
+    private ReentrantReadWriteLock stripe(ConcertHall hall) {
+        return this.stripes[(System.identityHashCode(hall) & 0x7fffffff) % STRIPES];
     }
     
+    /**
+     * Sets the binary codecs for all the files
+     */
+    private void useCodecs() {
+        this.infostreamer.setCodec(Codecs.COMPANY_INFO);
+        this.perfstreamer.setCodec(Codecs.PERFORMANCE);
+        this.perfstreamer.setChunkSize(PERFORMANCES_PER_CHUNK);
+        this.singers.setCodec(Codecs.PERFORMER);
+        this.dancers.setCodec(Codecs.PERFORMER);
+        this.directors.setCodec(Codecs.DIRECTOR);
+    }
+    
+    public static final long DEFAULT_COMPACT_THRESHOLD = 1 << 20;
+    private static final int STRIPES = 64;
+    private static final int PERFORMANCES_PER_CHUNK = 256;     // decoded in parallel on load
+    
     public static final byte CHECK_INFO         = 1;
     public static final byte CHECK_SINGERS      = 2;
     public static final byte CHECK_DANCERS      = 4;
@@ -128,16 +246,70 @@ public class Company {
     }
     
     /**
+     * Loads every file at once, each in its own thread, so the time it takes is that of
+     * the largest file rather than the sum. The time of each file is in the metrics.
      * @return true if load successful, false if exception thrown
-     * @throws IOException 
+     * @throws IOException the first error of the files, in the order they are listed
      */
     public boolean loadAll() throws IOException {
-        return
-                this.loadCompanyInfo() &&
-                this.loadDancers() &&
-                this.loadDirectors() &&
-                this.loadPerformances() &&
-                this.loadSingers();
+        final long START = this.metrics.start();
+        ExecutorService loaders = Executors.newFixedThreadPool(5, r -> {
+            Thread t = new Thread(r, "pavarotti-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            final List<CompletableFuture<Boolean>> LOADS = List.of(
+                    loadAsync(this::loadCompanyInfo, loaders),
+                    loadAsync(this::loadDancers, loaders),
+                    loadAsync(this::loadDirectors, loaders),
+                    loadAsync(this::loadPerformances, loaders),
+                    loadAsync(this::loadSingers, loaders)
+            );
+            boolean ok = true;
+            IOException error = null;
+            for (CompletableFuture<Boolean> load : LOADS) {
+                try {
+                    ok &= load.join();
+                } catch (CompletionException e) {
+                    if (error == null)
+                        error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+            if (error != null)
+                throw error;
+            return ok;
+        } finally {
+            loaders.shutdown();
+            this.metrics.stop("persistence.load.all", START);
+        }
+    }
+    
+    /**
+     * Loads a file
+     */
+    @FunctionalInterface
+    private interface Load {
+        /**
+         * @return true if load successful
+         * @throws IOException 
+         */
+        boolean load() throws IOException;
+    }
+    
+    /**
+     * @param load what to load
+     * @param executor where to load it
+     * @return the result of the load, completed with its IOException if any
+     */
+    private static CompletableFuture<Boolean> loadAsync(Load load, ExecutorService executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return load.load();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
     }
     
     /**
@@ -145,7 +317,12 @@ public class Company {
      * @throws IOException 
      */
     public boolean loadCompanyInfo() throws IOException {
-        return (info = this.infostreamer.loadFromFile()) != null;
+        final long START = this.metrics.start();
+        try {
+            return (info = this.infostreamer.loadFromFile()) != null;
+        } finally {
+            this.metrics.stop("persistence.load.info", START);
+        }
     }
     
     /**
@@ -153,7 +330,12 @@ public class Company {
      * @throws IOException 
      */
     public boolean loadSingers() throws IOException {
-        return this.singers.loadFromFile();
+        final long START = this.metrics.start();
+        try {
+            return this.singers.loadFromFile();
+        } finally {
+            this.metrics.stop("persistence.load.singers", START);
+        }
     }
     
     /**
@@ -161,7 +343,12 @@ public class Company {
      * @throws IOException 
      */
     public boolean loadDancers() throws IOException {
-        return this.dancers.loadFromFile();
+        final long START = this.metrics.start();
+        try {
+            return this.dancers.loadFromFile();
+        } finally {
+            this.metrics.stop("persistence.load.dancers", START);
+        }
     }
     
     /**
@@ -169,15 +356,152 @@ public class Company {
      * @throws IOException 
      */
     public boolean loadDirectors() throws IOException {
-        return this.directors.loadFromFile();
+        final long START = this.metrics.start();
+        try {
+            return this.directors.loadFromFile();
+        } finally {
+            this.metrics.stop("persistence.load.directors", START);
+        }
     }
     
     /**
+     * Loads the last snapshot of the performances and replays the journal on top of it
      * @return true if load successful, false if exception thrown
      * @throws IOException 
      */
-    public boolean loadPerformances() throws IOException {
-        return (this.performances = this.perfstreamer.loadAllFromFile()) != null;
+    public synchronized boolean loadPerformances() throws IOException {
+        final long START = this.metrics.start();
+        try {
+            ArrayList<Performance> list = this.perfstreamer.loadAllFromFile();
+            if (list == null)
+                return false;
+            this.replacePerformances(list);
+            final int REPLAYED = this.journal.replay(this::applyRecord);
+            this.bindSeats(REPLAYED > 0);
+            this.metrics.counter("journal.replayed").add(REPLAYED);
+            for (CompanyListener l : this.listeners)
+                l.performancesLoaded(this.getPerformances());
+            return true;
+        } finally {
+            this.metrics.stop("persistence.load.performances", START);
+        }
+    }
+    
+    /**
+     * Binds the halls saved with a slot to the seat file and, in mapped mode, moves the
+     * seats of the other halls into it; otherwise the seats are moved back to the heap.
+     * New slots are only given once the journal has been compacted, so that no record
+     * left on disk refers to a slot that now belongs to another hall.
+     * @param replayed true if the journal had records
+     * @throws IOException 
+     */
+    private void bindSeats(boolean replayed) throws IOException {
+        boolean slotted = false;
+        for (Performance p : this.performances)
+            for (ConcertHall h : p.getHall())
+                slotted |= h.getSlot() >= 0;
+        if (!this.mappedSeats) {
+            if (!slotted) return;
+            this.seatfile.open();
+            for (Performance p : this.performances)
+                for (ConcertHall h : p.getHall()) {
+                    this.seatfile.bind(h);
+                    this.seatfile.detach(h);
+                }
+            this.seatfile.close();
+            this.savePerformances();
+            return;
+        }
+        this.seatfile.open();
+        for (Performance p : this.performances)
+            for (ConcertHall h : p.getHall())
+                this.seatfile.bind(h);
+        if (replayed)
+            this.savePerformances();
+        boolean moved = false;
+        for (Performance p : this.performances)
+            moved |= this.mapSeats(p);
+        if (moved)
+            this.savePerformances();
+    }
+    
+    /**
+     * Moves the seats of the halls of a performance into the seat file, in mapped mode
+     * @param performance the performance
+     * @return true if the seats of any hall were moved
+     * @throws IOException 
+     */
+    private boolean mapSeats(Performance performance) throws IOException {
+        if (!this.mappedSeats || !this.seatfile.isOpen())
+            return false;
+        boolean moved = false;
+        for (ConcertHall h : performance.getHall())
+            if (!h.isMapped())
+                moved |= this.seatfile.attach(h);
+        return moved;
+    }
+    
+    /**
+     * Moves the seats of the halls of a performance no longer in the company back to the
+     * heap, freeing their slots in the seat file; the halls it shares with its replacement
+     * keep theirs. A freed slot may be given to another hall before the next snapshot, as
+     * the journal replays the removal before any record of the hall given the slot.
+     * @param old the performance removed
+     * @param replacement the performance replacing it, or null if none
+     */
+    private void releaseSeats(Performance old, Performance replacement) {
+        if (!this.seatfile.isOpen()) return;
+        for (ConcertHall h : old.getHall()) {
+            boolean kept = false;
+            if (replacement != null)
+                for (ConcertHall k : replacement.getHall())
+                    kept |= (k == h);
+            if (!kept)
+                this.seatfile.detach(h);
+        }
+    }
+    
+    /**
+     * Applies a change read from the journal
+     * @param r the record
+     */
+    private void applyRecord(Journal.Record r) {
+        switch (r.type) {
+            case Journal.SELL:
+            case Journal.REFUND:
+                Performance p = this.performancesByID.get(r.ID);
+                if (p == null || r.hall < 0 || r.hall >= p.getHall().size()) return;
+                ConcertHall hall = p.getHall(r.hall);
+                if (r.seat < 0 || r.seat >= hall.getCapacity()) return;
+                if (r.type == Journal.SELL)
+                    hall.markSold(r.seat, r.millis);
+                else
+                    hall.markAvailable(r.seat);
+                break;
+            case Journal.SELL_SEATS:
+                Performance show = this.performancesByID.get(r.ID);
+                if (show == null || r.hall < 0 || r.hall >= show.getHall().size()) return;
+                ConcertHall seats = show.getHall(r.hall);
+                for (int seat : r.seats)
+                    if (seat >= 0 && seat < seats.getCapacity())
+                        seats.markSold(seat, r.millis);
+                break;
+            case Journal.PUT:
+                this.detachPerformance(r.ID);
+                this.insertPerformance(r.performance);
+                break;
+            case Journal.REMOVE:
+                this.detachPerformance(r.ID);
+                break;
+            case Journal.CLEAR:
+                this.replacePerformances(new ArrayList<>());
+                break;
+            case Journal.PRICE:
+                Performance priced = this.performancesByID.get(r.ID);
+                if (priced != null)
+                    priced.setBasePrice(r.price, r.millis);
+                break;
+        }
     }
     
     /**
@@ -226,35 +550,145 @@ public class Company {
      * @throws IOException 
      */
     public void saveCompanyInfo() throws IOException {
-        this.infostreamer.saveToFile(info);
+        final long START = this.metrics.start();
+        try {
+            this.infostreamer.saveToFile(info);
+        } finally {
+            this.metrics.stop("persistence.save.info", START);
+        }
     }
     
     /**
      * @throws IOException 
      */
     public void saveSingers() throws IOException {
-        this.singers.saveToFile();
+        final long START = this.metrics.start();
+        try {
+            this.singers.saveToFile();
+        } finally {
+            this.metrics.stop("persistence.save.singers", START);
+        }
     }
     
     /**
      * @throws IOException 
      */
     public void saveDancers() throws IOException {
-        this.dancers.saveToFile();
+        final long START = this.metrics.start();
+        try {
+            this.dancers.saveToFile();
+        } finally {
+            this.metrics.stop("persistence.save.dancers", START);
+        }
     }
     
     /**
      * @throws IOException 
      */
     public void saveDirectors() throws IOException {
-        this.directors.saveToFile();
+        final long START = this.metrics.start();
+        try {
+            this.directors.saveToFile();
+        } finally {
+            this.metrics.stop("persistence.save.directors", START);
+        }
     }
     
     /**
+     * Saves a snapshot of the performances and discards the journal, waiting for it to finish
      * @throws IOException 
      */
-    public void savePerformances() throws IOException {
-        this.perfstreamer.saveToFile(this.performances);
+    public synchronized void savePerformances() throws IOException {
+        final long START = this.metrics.start();
+        try {
+            this.awaitPersistence();
+            final int GENERATION = this.journal.rotate();
+            if (this.seatfile.isOpen())
+                this.seatfile.force();
+            this.perfstreamer.saveToFile(this.performances);
+            this.journal.discardUpTo(GENERATION);
+        } finally {
+            this.metrics.stop("persistence.save.performances", START);
+        }
+    }
+    
+    /**
+     * Saves a snapshot of the performances in the background and discards the journal once done.
+     * The performances are serialized before returning, so they can be changed right away.
+     * Does nothing if a snapshot is still being saved.
+     * @throws IOException 
+     */
+    public synchronized void compactPerformances() throws IOException {
+        if (this.compaction != null && !this.compaction.isDone())
+            return;
+        final long START = this.metrics.start();
+        final int GENERATION = this.journal.rotate();
+        final byte[] DATA = this.perfstreamer.toBytes(this.performances);
+        this.metrics.stop("persistence.compact.serialize", START);
+        if (this.persistence == null)
+            this.persistence = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "pavarotti-persistence");
+                t.setDaemon(true);
+                return t;
+            });
+        this.compaction = this.persistence.submit(() -> {
+            final long WRITE = this.metrics.start();
+            if (this.seatfile.isOpen())
+                this.seatfile.force();
+            this.perfstreamer.saveBytesToFile(DATA);
+            this.journal.discardUpTo(GENERATION);
+            this.metrics.stop("persistence.compact.write", WRITE);
+            return null;
+        });
+    }
+    
+    /**
+     * @return true if the journal grew enough to be worth compacting into a snapshot
+     */
+    public boolean needsCompaction() {
+        return this.journal.getSize() >= this.compactThreshold;
+    }
+    
+    /**
+     * Writes the changes journaled so far to the disk
+     * @throws IOException
+     */
+    public void syncJournal() throws IOException {
+        this.journal.sync();
+    }
+
+    /**
+     * Waits for the snapshot being saved in the background, if any
+     * @throws IOException if the snapshot could not be saved
+     */
+    public void awaitPersistence() throws IOException {
+        if (this.compaction == null) return;
+        try {
+            this.compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving the performances.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            this.compaction = null;
+        }
+    }
+    
+    /**
+     * @return the size of the journal, in bytes, above which it should be compacted
+     */
+    public long getCompactThreshold() {
+        return this.compactThreshold;
+    }
+    
+    /**
+     * @param compactThreshold the size of the journal, in bytes, above which it should be compacted
+     */
+    public void setCompactThreshold(long compactThreshold) {
+        this.compactThreshold = compactThreshold;
     }
     
     /**
@@ -323,10 +757,19 @@ public class Company {
     }
 
     /**
-     * @return the performances
+     * The list changes as performances are added or removed, so readers that may run
+     * alongside those changes should take a snapshot instead
+     * @return the performances, sorted by first date; read-only, as the company relies on that order
      */
-    public ArrayList<Performance> getPerformances() {
-        return this.performances;
+    public List<Performance> getPerformances() {
+        return Collections.unmodifiableList(this.performances);
+    }
+    
+    /**
+     * @return a copy of the performances, sorted by first date, taken while none is added or removed
+     */
+    public synchronized ArrayList<Performance> snapshotPerformances() {
+        return new ArrayList<>(this.performances);
     }
     
     /**
@@ -334,21 +777,17 @@ public class Company {
      * @return the performance
      */
     public Performance getPerformanceByID(String ID) {
-        int index = getPerformanceIndexByID(ID);
-        if (index == -1) return null;
-        return this.performances.get(index);
+        return this.performancesByID.get(ID);
     }
     
     /**
      * @param ID the ID
      * @return the performance index
      */
-    public int getPerformanceIndexByID(String ID) {
-        for (int i = 0; i < this.performances.size(); i++) {
-            if (this.performances.get(i).getID().equals(ID))
-                return i;
-        }
-        return -1;
+    public synchronized int getPerformanceIndexByID(String ID) {
+        Performance p = this.performancesByID.get(ID);
+        if (p == null) return -1;
+        return this.performances.indexOf(p);
     }
     
     /**
@@ -356,47 +795,176 @@ public class Company {
      * @param p the new performance
      * @throws IndexOutOfBoundsException
      */
-    public void modifyPerformance(String ID, Performance p) throws IndexOutOfBoundsException {
-        this.performances.set(this.getPerformanceIndexByID(ID), p);
+    public synchronized void modifyPerformance(String ID, Performance p) throws IndexOutOfBoundsException, IOException {
+        final Performance OLD = this.performancesByID.get(ID);
+        if (!this.detachPerformance(ID))
+            throw new IndexOutOfBoundsException(String.format("No performance with ID %s.", ID));
+        this.insertPerformance(p);
+        this.releaseSeats(OLD, p);
+        this.mapSeats(p);
+        for (CompanyListener l : this.listeners) {
+            l.performanceRemoved(OLD);
+            l.performanceAdded(p);
+        }
+        if (!p.getID().equals(ID))
+            this.journal.logRemove(ID);
+        this.journal.logPut(p);
     }
 
     /**
      * @param performances the performances to set
+     * @throws IOException
      */
-    public void setPerformances(ArrayList<Performance> performances) {
+    public synchronized void setPerformances(ArrayList<Performance> performances) throws IOException {
+        this.replacePerformances(performances);
+        this.journal.logClear();
+        for (Performance p : this.performances) {
+            this.mapSeats(p);
+            this.journal.logPut(p);
+        }
+        for (CompanyListener l : this.listeners)
+            l.performancesLoaded(this.getPerformances());
+    }
+    
+    /**
+     * Replaces the performances without logging it
+     * @param performances the performances to set
+     */
+    private void replacePerformances(ArrayList<Performance> performances) {
+        final ArrayList<Performance> LIST = new ArrayList<>(performances);
         this.performances.clear();
-        this.performances.addAll(performances);
+        this.performancesByID.clear();
+        this.performancesByDate.clear();
+        this.indexedDates.clear();
+        this.performances.addAll(LIST);
+        for (Performance p : LIST) {
+            this.performancesByID.put(p.getID(), p);
+            this.indexDates(p);
+        }
         this.sortPerformancesByDate();
     }
     
     /**
      * @param performance the performance to add
+     * @throws IOException
      */
-    public void addPerformance(Performance performance) {
-        this.performances.add(performance);
-        this.sortPerformancesByDate();
+    public synchronized void addPerformance(Performance performance) throws IOException {
+        this.insertPerformance(performance);
+        this.mapSeats(performance);
+        for (CompanyListener l : this.listeners)
+            l.performanceAdded(performance);
+        this.journal.logPut(performance);
     }
     
     /**
-     * Sorts the performances by first date
+     * Inserts a performance in the list keeping it sorted by first date
+     * @param performance the performance to insert
      */
-    public void sortPerformancesByDate() {
-        this.performances.sort(
-                (Performance a, Performance b) -> {
-                    return a.getHall().get(0).getWhen().compareTo(b.getHall().get(0).getWhen());
-                }
-        );
+    private void insertPerformance(Performance performance) {
+        int index = Collections.binarySearch(this.performances, performance, BY_DATE);
+        this.performances.add((index < 0) ? -index - 1 : index, performance);
+        this.performancesByID.put(performance.getID(), performance);
+        this.indexDates(performance);
     }
     
     /**
-     * Sorts the performances by ID
+     * Adds every date of a performance to the date index
+     * @param performance the performance
      */
-    public void sortPerformancesByID() {
-        this.performances.sort(
-                (Performance a, Performance b) -> {
-                    return a.getID().compareTo(b.getID());
-                }
-        );
+    private void indexDates(Performance performance) {
+        ArrayList<LocalDateTime> dates = new ArrayList<>();
+        for (ConcertHall h : performance.getHall()) {
+            this.performancesByDate.computeIfAbsent(h.getWhen(), k -> new ArrayList<>(1)).add(performance);
+            dates.add(h.getWhen());
+        }
+        this.indexedDates.put(performance.getID(), dates);
+    }
+    
+    /**
+     * Removes a performance from the date index, using the dates it was indexed under
+     * @param ID the ID of the performance
+     * @param performance the performance
+     */
+    private void unindexDates(String ID, Performance performance) {
+        ArrayList<LocalDateTime> dates = this.indexedDates.remove(ID);
+        if (dates == null) return;
+        for (LocalDateTime when : dates) {
+            List<Performance> list = this.performancesByDate.get(when);
+            if (list == null) continue;
+            list.remove(performance);
+            if (list.isEmpty())
+                this.performancesByDate.remove(when);
+        }
+    }
+    
+    /**
+     * Searches for the performances that take place between two dates
+     * @param after the inferior limit (inclusive)
+     * @param before the superior limit (inclusive)
+     * @return the performances with at least one date in the interval, ordered by their first date in it
+     */
+    public synchronized ArrayList<Performance> searchPerformancesByDate(LocalDateTime after, LocalDateTime before) {
+        LinkedHashSet<Performance> result = new LinkedHashSet<>();
+        if (after.compareTo(before) > 0)
+            return new ArrayList<>();
+        for (List<Performance> list : this.performancesByDate.subMap(after, true, before, true).values())
+            result.addAll(list);
+        return new ArrayList<>(result);
+    }
+    
+    /**
+     * Reprices all the dates of a performance from now on, keeping the tickets already sold
+     * and the prices they were sold at
+     * @param ID the performance ID
+     * @param price the new base price
+     * @throws PerformanceNotFoundException
+     * @throws IOException 
+     */
+    public synchronized void setPerformancePrice(String ID, Double price) throws PerformanceNotFoundException, IOException {
+        final Performance P = this.findPerformance(ID);
+        final long NOW = System.currentTimeMillis();
+        P.setBasePrice(price, NOW);
+        this.journal.logPrice(ID, price, NOW);
+    }
+    
+    /**
+     * Reprices a season in one pass: every performance with a date in the interval
+     * gets a new base price for all its dates, computed from its current one.
+     * Tickets already sold keep the prices they were sold at.
+     * @param after the inferior limit (inclusive)
+     * @param before the superior limit (inclusive)
+     * @param change the new base price of a performance, given its current one
+     * @return the number of performances repriced
+     * @throws IOException 
+     */
+    public synchronized int repriceSeason(LocalDateTime after, LocalDateTime before, DoubleUnaryOperator change) throws IOException {
+        final long NOW = System.currentTimeMillis();
+        int count = 0;
+        for (Performance p : this.searchPerformancesByDate(after, before)) {
+            final double PRICE = change.applyAsDouble(p.getBasePrice());
+            p.setBasePrice(PRICE, NOW);
+            this.journal.logPrice(p.getID(), PRICE, NOW);
+            count++;
+        }
+        return count;
+    }
+    
+    /**
+     * Compares performances by first date; performances without dates go last
+     */
+    private static final Comparator<Performance> BY_DATE =
+            (Performance a, Performance b) -> {
+                final boolean A = a.getHall().isEmpty();
+                final boolean B = b.getHall().isEmpty();
+                if (A || B) return Boolean.compare(A, B);
+                return a.getHall().get(0).getWhen().compareTo(b.getHall().get(0).getWhen());
+            };
+    
+    /**
+     * Sorts the performances by first date
+     */
+    public synchronized void sortPerformancesByDate() {
+        this.performances.sort(BY_DATE);
     }
     
     /**
@@ -404,25 +972,76 @@ public class Company {
      * @return true if the ID exists, false otherwise
      */
     public boolean hasPerformanceID(String ID) {
-        return Performance.hasID(performances, ID);
+        return this.performancesByID.containsKey(ID);
     }
     
     /**
+     * The slots of the seat file held by the halls of the performance are given back,
+     * so that the halls added next reuse them
      * @param ID the ID which performance is to be removed
      * @return true if removes, false otherwise
      */
-    public boolean removePerformance(String ID) {
-        int index = this.getPerformanceIndexByID(ID);
-        if (index == -1) return false;
-        this.performances.remove(index);
+    public synchronized boolean removePerformance(String ID) throws IOException {
+        final Performance OLD = this.performancesByID.get(ID);
+        if (!this.detachPerformance(ID)) return false;
+        this.releaseSeats(OLD, null);
+        for (CompanyListener l : this.listeners)
+            l.performanceRemoved(OLD);
+        this.journal.logRemove(ID);
+        return true;
+    }
+    
+    /**
+     * @param listener the listener to receive the changes to the performances and tickets
+     */
+    public void addListener(CompanyListener listener) {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeListener(CompanyListener listener) {
+        this.listeners.remove(listener);
+    }
+    
+    /**
+     * Removes a performance from the list and the indexes without logging it
+     * @param ID the ID which performance is to be removed
+     * @return true if removed, false otherwise
+     */
+    private boolean detachPerformance(String ID) {
+        Performance p = this.performancesByID.remove(ID);
+        if (p == null) return false;
+        this.performances.remove(p);
+        this.unindexDates(ID, p);
         return true;
     }
     
     /**
+     * Sets the file name of the performances, of their journal and of their seat file
      * @param fname the file name to set
      */
     public void setPerformancesFileName(String fname) {
         this.perfstreamer.setFileName(fname);
+        this.journal.setFileName(fname.isEmpty() ? "" : fname + ".jnl");
+        this.seatfile.setFileName(fname.isEmpty() ? "" : fname + ".seats");
+    }
+    
+    /**
+     * @return true if the seats are kept in a memory mapped file
+     */
+    public boolean isMappedSeats() {
+        return this.mappedSeats;
+    }
+    
+    /**
+     * Keeps the seats of the halls in a memory mapped file instead of the snapshot of the
+     * performances, so that loading does not read them. Takes effect on the next load.
+     * @param mappedSeats true to keep the seats in a memory mapped file
+     */
+    public void setMappedSeats(boolean mappedSeats) {
+        this.mappedSeats = mappedSeats;
     }
     
     /**
@@ -432,6 +1051,30 @@ public class Company {
         return this.perfstreamer.getFileName();
     }
     
+    /**
+     * @param showID the performance ID
+     * @return the performance
+     * @throws PerformanceNotFoundException 
+     */
+    private Performance findPerformance(String showID) throws PerformanceNotFoundException {
+        Performance p = this.getPerformanceByID(showID);
+        if (p == null)
+            throw new PerformanceNotFoundException(showID);
+        return p;
+    }
+    
+    /**
+     * @param showID the performance ID
+     * @param seat the seat
+     * @return the index of the seat in the halls of the performance
+     * @throws IndexOutOfBoundsException
+     * @throws PerformanceNotFoundException
+     * @throws SeatNotFoundException 
+     */
+    public int getSeatIndex(String showID, String seat) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
+        return this.findPerformance(showID).getHall(0).seatToInt(seat);
+    }
+    
     /**
      * @param showID the performance ID
      * @param seat the seat
@@ -443,13 +1086,8 @@ public class Company {
      */
     @Deprecated
     public Ticket getTicketInfo(String showID, String seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        int indtick = this.performances.get(indperf).getHall(0).searchTicket(seat);
-        if (indtick == -1)
-            throw new SeatNotFoundException(seat);
-        return this.performances.get(indperf).getHall(index).getTicket(indtick);
+        final Performance PERF = this.findPerformance(showID);
+        return PERF.getHall(index).getTicket(PERF.getHall(0).seatToInt(seat));
     }
     
     /**
@@ -460,13 +1098,21 @@ public class Company {
      * @throws SeatNotFoundException 
      */
     public Double getTicketPrice(String showID, String seat) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        int indtick = this.performances.get(indperf).getHall(0).searchTicket(seat);
-        if (indtick == -1)
-            throw new SeatNotFoundException(seat);
-        return this.performances.get(indperf).getHall(0).getTicket(indtick).getPrice();
+        final ConcertHall HALL = this.findPerformance(showID).getHall(0);
+        return HALL.getPrice(HALL.seatToInt(seat));
+    }
+    
+    /**
+     * @param showID the performance ID
+     * @param seat the index of the seat
+     * @return the price
+     * @throws PerformanceNotFoundException
+     * @throws SeatNotFoundException 
+     */
+    public Double getTicketPrice(String showID, int seat) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(0);
+        checkSeat(HALL, seat);
+        return HALL.getPrice(seat);
     }
     
     /**
@@ -478,13 +1124,22 @@ public class Company {
      * @throws SeatNotFoundException 
      */
     public boolean isTicketSold(String showID, String seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        int indtick = this.performances.get(indperf).getHall(index).searchTicket(seat);
-        if (indtick == -1)
-            throw new SeatNotFoundException(seat);
-        return this.performances.get(indperf).getHall(index).getTicket(indtick).isSold();
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        return HALL.isSold(HALL.seatToInt(seat));
+    }
+    
+    /**
+     * @param showID the performance ID
+     * @param seat the index of the seat
+     * @param index the index given the date
+     * @return true if sold, false otherwise
+     * @throws PerformanceNotFoundException
+     * @throws SeatNotFoundException 
+     */
+    public boolean isTicketSold(String showID, int seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        checkSeat(HALL, seat);
+        return HALL.isSold(seat);
     }
     
     /**
@@ -496,13 +1151,22 @@ public class Company {
      * @throws SeatNotFoundException 
      */
     public LocalDateTime whenTicketSold(String showID, String seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketNotSoldException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        int indtick = this.performances.get(indperf).getHall(index).searchTicket(seat);
-        if (indtick == -1)
-            throw new SeatNotFoundException(seat);
-        return this.performances.get(indperf).getHall(index).getTicket(indtick).getWhen();
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        return HALL.whenSold(HALL.seatToInt(seat));
+    }
+    
+    /**
+     * @param showID the performance ID
+     * @param seat the index of the seat
+     * @param index the index
+     * @return when the ticket was sold
+     * @throws PerformanceNotFoundException
+     * @throws SeatNotFoundException 
+     */
+    public LocalDateTime whenTicketSold(String showID, int seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketNotSoldException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        checkSeat(HALL, seat);
+        return HALL.whenSold(seat);
     }
     
     /**
@@ -511,16 +1175,120 @@ public class Company {
      * @param index the index
      * @throws PerformanceNotFoundException
      * @throws SeatNotFoundException
-     * @throws TicketSoldException 
+     * @throws TicketSoldException with the seat already sold
+     * @throws IOException if the sale could not be logged, in which case it is undone
      */
-    public void sellTicket(String showID, String seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketSoldException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        int indtick = this.performances.get(indperf).getHall(index).searchTicket(seat);
-        if (indtick == -1)
-            throw new SeatNotFoundException(seat);
-        this.performances.get(indperf).getHall(index).getTicket(indtick).sell();
+    public void sellTicket(String showID, String seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketSoldException, IOException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        this.sell(showID, HALL, index, HALL.seatToInt(seat));
+    }
+    
+    /**
+     * @param showID the performance ID
+     * @param seat the index of the seat
+     * @param index the index
+     * @throws PerformanceNotFoundException
+     * @throws SeatNotFoundException
+     * @throws TicketSoldException with the seat already sold
+     * @throws IOException if the sale could not be logged, in which case it is undone
+     */
+    public void sellTicket(String showID, int seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketSoldException, IOException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        checkSeat(HALL, seat);
+        this.sell(showID, HALL, index, seat);
+    }
+    
+    /**
+     * @param showID the performance ID
+     * @param index the index of the hall
+     * @param count the number of contiguous seats
+     * @return the best contiguous available seats, or an empty list if there are none
+     * @throws IndexOutOfBoundsException
+     * @throws PerformanceNotFoundException
+     */
+    public ArrayList<String> findBestSeats(String showID, int index, int count) throws IndexOutOfBoundsException, PerformanceNotFoundException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        ArrayList<String> seats = new ArrayList<>(count);
+        for (int seat : HALL.findBestSeats(count))
+            seats.add(HALL.getSeat(seat));
+        return seats;
+    }
+    
+    /**
+     * Sells several seats of a hall at once, all or none, logging them as a single record
+     * @param showID the performance ID
+     * @param index the index of the hall
+     * @param seats the seats, repeated ones being sold once
+     * @throws IndexOutOfBoundsException
+     * @throws PerformanceNotFoundException
+     * @throws SeatNotFoundException
+     * @throws TicketSoldException with the seat already sold, in which case none is sold
+     * @throws IOException if the sale could not be logged, in which case it is undone
+     */
+    public void sellTickets(String showID, int index, Collection<String> seats) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketSoldException, IOException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        LinkedHashSet<Integer> distinct = new LinkedHashSet<>();
+        for (String seat : seats)
+            distinct.add(HALL.seatToInt(seat));
+        final int[] SEATS = new int[distinct.size()];
+        int i = 0;
+        for (Integer seat : distinct)
+            SEATS[i++] = seat;
+        
+        final ReentrantReadWriteLock.WriteLock LOCK = this.stripe(HALL).writeLock();
+        final long NOW = System.currentTimeMillis();
+        LOCK.lock();
+        try {
+            HALL.sell(SEATS, NOW);
+            try {
+                this.journal.logSellSeats(showID, index, SEATS, NOW);
+            } catch (IOException e) {
+                for (int seat : SEATS)
+                    HALL.markAvailable(seat);
+                throw e;
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        this.metrics.counter("tickets.sold").add(SEATS.length);
+        for (CompanyListener l : this.listeners)
+            l.ticketsSold(showID, index, SEATS, NOW);
+    }
+    
+    /**
+     * Sells a seat and logs the sale, sharing the lock of the hall with other sales
+     * @param showID the performance ID
+     * @param hall the hall
+     * @param index the index of the hall
+     * @param seat the index of the seat
+     * @throws TicketSoldException with the seat already sold, as sellTickets does
+     * @throws IOException 
+     */
+    private void sell(String showID, ConcertHall hall, int index, int seat) throws TicketSoldException, IOException {
+        final ReentrantReadWriteLock.ReadLock LOCK = this.stripe(hall).readLock();
+        final long NOW = System.currentTimeMillis();
+        LOCK.lock();
+        try {
+            try {
+                hall.sell(seat, NOW);
+            } catch (TicketSoldException e) {
+                throw new TicketSoldException(hall.getSeat(seat));
+            }
+            try {
+                this.journal.logSell(showID, index, seat, NOW);
+            } catch (IOException e) {
+                hall.markAvailable(seat);
+                throw e;
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        this.metrics.counter("tickets.sold").increment();
+        if (!this.listeners.isEmpty()) {
+            final int[] SEATS = {seat};
+            for (CompanyListener l : this.listeners)
+                l.ticketsSold(showID, index, SEATS, NOW);
+        }
     }
     
     /**
@@ -530,15 +1298,68 @@ public class Company {
      * @throws PerformanceNotFoundException
      * @throws SeatNotFoundException
      * @throws TicketNotSoldException 
+     * @throws IOException if the refund could not be logged, in which case it is undone
      */
-    public void refundTicket(String showID, String seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketNotSoldException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        int indtick = this.performances.get(indperf).getHall(index).searchTicket(seat);
-        if (indtick == -1)
-            throw new SeatNotFoundException(seat);
-        this.performances.get(indperf).getHall(index).getTicket(indtick).refund();
+    public void refundTicket(String showID, String seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketNotSoldException, IOException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        this.refund(showID, HALL, index, HALL.seatToInt(seat));
+    }
+    
+    /**
+     * @param showID the performance ID
+     * @param seat the index of the seat
+     * @param index the index
+     * @throws PerformanceNotFoundException
+     * @throws SeatNotFoundException
+     * @throws TicketNotSoldException 
+     * @throws IOException if the refund could not be logged, in which case it is undone
+     */
+    public void refundTicket(String showID, int seat, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException, TicketNotSoldException, IOException {
+        final ConcertHall HALL = this.findPerformance(showID).getHall(index);
+        checkSeat(HALL, seat);
+        this.refund(showID, HALL, index, seat);
+    }
+    
+    /**
+     * Refunds a seat and logs the refund, holding the lock of the hall alone so that
+     * the sale being refunded is already logged and later sales are logged after it
+     * @param showID the performance ID
+     * @param hall the hall
+     * @param index the index of the hall
+     * @param seat the index of the seat
+     * @throws TicketNotSoldException
+     * @throws IOException 
+     */
+    private void refund(String showID, ConcertHall hall, int index, int seat) throws TicketNotSoldException, IOException {
+        final ReentrantReadWriteLock.WriteLock LOCK = this.stripe(hall).writeLock();
+        long when;
+        LOCK.lock();
+        try {
+            when = hall.getSoldMillis(seat);
+            hall.refund(seat);
+            try {
+                this.journal.logRefund(showID, index, seat);
+            } catch (IOException e) {
+                hall.markSold(seat, when);
+                throw e;
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        this.metrics.counter("tickets.refunded").increment();
+        for (CompanyListener l : this.listeners)
+            l.ticketRefunded(showID, index, seat, when);
+    }
+
+    
+    /**
+     * @param hall the hall
+     * @param seat the index of the seat
+     * @throws SeatNotFoundException 
+     */
+    private static void checkSeat(ConcertHall hall, int seat) throws SeatNotFoundException {
+        if (seat < 0 || seat >= hall.getCapacity())
+            throw new SeatNotFoundException(Integer.toString(seat));
     }
     
     /**
@@ -550,10 +1371,7 @@ public class Company {
      * @throws TicketNotSoldException 
      */
     public boolean hasAvailableTickets(String showID, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        return this.performances.get(indperf).ticketsAvailable(index);
+        return this.findPerformance(showID).ticketsAvailable(index);
     }
     
     /**
@@ -564,10 +1382,7 @@ public class Company {
      * @throws SeatNotFoundException 
      */
     public Integer ticketsAvailable(String showID, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        return this.performances.get(indperf).getHall(index).countAvailable();
+        return this.findPerformance(showID).getHall(index).countAvailable();
     }
     
     /**
@@ -578,10 +1393,7 @@ public class Company {
      * @throws SeatNotFoundException 
      */
     public Integer ticketsSold(String showID, int index) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        return this.performances.get(indperf).getHall(index).countSold();
+        return this.findPerformance(showID).getHall(index).countSold();
     }
     
     /**
@@ -591,9 +1403,6 @@ public class Company {
      * @throws SeatNotFoundException 
      */
     public Integer hallCapacity(String showID) throws IndexOutOfBoundsException, PerformanceNotFoundException, SeatNotFoundException {
-        int indperf = this.getPerformanceIndexByID(showID);
-        if (indperf == -1)
-            throw new PerformanceNotFoundException(showID);
-        return this.performances.get(indperf).getHall(0).getCapacity();
+        return this.findPerformance(showID).getHall(0).getCapacity();
     }
 }
@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.api;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.dma.io.Binary;
+import org.pavarotti.core.components.Codecs;
+import org.pavarotti.core.components.Performance;
+
+/**
+ * Append-only journal of the changes made to the performances since the last snapshot.
+ * The journal is split in generations, each one in its own file named after the
+ * journal plus the number of the generation (e.g. "perfshow.dat.jnl.3"). Records are
+ * only appended to the newest generation; a snapshot taken after rotating the journal
+ * makes every older generation obsolete.
+ * Every record overwrites the state it refers to, so replaying records that are
+ * already part of a snapshot is harmless.
+ * @author Ovelhas do Presépio
+ */
+public class Journal {
+    public static final byte SELL   = 1;
+    public static final byte REFUND = 2;
+    public static final byte PUT    = 3;
+    public static final byte REMOVE = 4;
+    public static final byte CLEAR  = 5;
+    public static final byte SELL_SEATS = 6;
+    public static final byte PRICE  = 7;
+    
+    /**
+     * A change read from the journal
+     */
+    public static class Record {
+        public final byte type;
+        public final String ID;
+        public final int hall;
+        public final int seat;
+        public final long millis;
+        public final Performance performance;
+        public final int[] seats;
+        public final double price;
+        
+        public Record(byte type, String ID, int hall, int seat, long millis, Performance performance) {
+            this.type        = type;
+            this.ID          = ID;
+            this.hall        = hall;
+            this.seat        = seat;
+            this.millis      = millis;
+            this.performance = performance;
+            this.seats       = null;
+            this.price       = 0.0;
+        }
+        
+        public Record(byte type, String ID, int hall, int[] seats, long millis) {
+            this.type        = type;
+            this.ID          = ID;
+            this.hall        = hall;
+            this.seat        = -1;
+            this.millis      = millis;
+            this.performance = null;
+            this.seats       = seats;
+            this.price       = 0.0;
+        }
+        
+        public Record(byte type, String ID, double price, long millis) {
+            this.type        = type;
+            this.ID          = ID;
+            this.hall        = -1;
+            this.seat        = -1;
+            this.millis      = millis;
+            this.performance = null;
+            this.seats       = null;
+            this.price       = price;
+        }
+    }
+    
+    private String fname;
+    private int generation;             // the generation being appended to
+    private long size;                  // bytes in all the generations on disk
+    private DataOutputStream out;
+    private FileOutputStream file;      // the file under out, to sync it to the disk
+    
+    /**
+     * @return the file name
+     */
+    public String getFileName() {
+        return this.fname;
+    }
+    
+    /**
+     * @param fname the file name
+     */
+    public synchronized void setFileName(String fname) {
+        this.closeQuietly();
+        this.fname      = fname;
+        this.size       = 0;
+        this.generation = 0;
+        if (!this.isEnabled()) return;
+        for (int g : this.listGenerations()) {
+            this.size += this.generationFile(g).length();
+            this.generation = g + 1;
+        }
+    }
+    
+    /**
+     * @return true if there is a file to write the journal to
+     */
+    public boolean isEnabled() {
+        return !this.fname.isEmpty();
+    }
+    
+    /**
+     * @return the number of bytes in the journal files
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @param hall the index of the hall
+     * @param seat the index of the seat
+     * @param millis when the seat was sold, in epoch milliseconds
+     * @throws IOException 
+     */
+    public void logSell(String ID, int hall, int seat, long millis) throws IOException {
+        if (!this.isEnabled()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(SELL);
+        data.writeUTF(ID);
+        data.writeInt(hall);
+        data.writeInt(seat);
+        data.writeLong(millis);
+        this.append(bytes.toByteArray());
+    }
+    
+    /**
+     * Logs the sale of several seats at once as a single record
+     * @param ID the performance ID
+     * @param hall the index of the hall
+     * @param seats the indexes of the seats
+     * @param millis when the seats were sold, in epoch milliseconds
+     * @throws IOException 
+     */
+    public void logSellSeats(String ID, int hall, int[] seats, long millis) throws IOException {
+        if (!this.isEnabled()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 4 * seats.length);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(SELL_SEATS);
+        data.writeUTF(ID);
+        data.writeInt(hall);
+        data.writeLong(millis);
+        data.writeInt(seats.length);
+        for (int seat : seats)
+            data.writeInt(seat);
+        this.append(bytes.toByteArray());
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @param hall the index of the hall
+     * @param seat the index of the seat
+     * @throws IOException 
+     */
+    public void logRefund(String ID, int hall, int seat) throws IOException {
+        if (!this.isEnabled()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(REFUND);
+        data.writeUTF(ID);
+        data.writeInt(hall);
+        data.writeInt(seat);
+        this.append(bytes.toByteArray());
+    }
+    
+    /**
+     * @param p the performance added or modified
+     * @throws IOException 
+     */
+    public void logPut(Performance p) throws IOException {
+        if (!this.isEnabled()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(PUT);
+        data.writeUTF(p.getID());
+        Binary.writeVarInt(data, Codecs.PERFORMANCE.getVersion());
+        Codecs.PERFORMANCE.write(data, p);
+        this.append(bytes.toByteArray());
+    }
+    
+    /**
+     * Logs the repricing of all the dates of a performance
+     * @param ID the performance ID
+     * @param price the new base price
+     * @param millis when the price takes effect, in epoch milliseconds
+     * @throws IOException 
+     */
+    public void logPrice(String ID, double price, long millis) throws IOException {
+        if (!this.isEnabled()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(PRICE);
+        data.writeUTF(ID);
+        data.writeDouble(price);
+        data.writeLong(millis);
+        this.append(bytes.toByteArray());
+    }
+    
+    /**
+     * @param ID the ID of the performance removed
+     * @throws IOException 
+     */
+    public void logRemove(String ID) throws IOException {
+        if (!this.isEnabled()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(REMOVE);
+        data.writeUTF(ID);
+        this.append(bytes.toByteArray());
+    }
+    
+    /**
+     * Logs the removal of all the performances
+     * @throws IOException 
+     */
+    public void logClear() throws IOException {
+        if (!this.isEnabled()) return;
+        this.append(new byte[] {CLEAR});
+    }
+    
+    /**
+     * Appends a record as length, payload and checksum
+     * @param payload the payload of the record
+     * @throws IOException 
+     */
+    private synchronized void append(byte[] payload) throws IOException {
+        if (this.out == null) {
+            this.file = new FileOutputStream(this.generationFile(this.generation), true);
+            this.out  = new DataOutputStream(new BufferedOutputStream(this.file));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        this.out.writeInt(payload.length);
+        this.out.write(payload);
+        this.out.writeInt((int) crc.getValue());
+        this.out.flush();
+        this.size += payload.length + 8;
+    }
+    
+    /**
+     * Writes the records appended so far to the disk, not only to the OS
+     * @throws IOException 
+     */
+    public synchronized void sync() throws IOException {
+        if (this.out == null) return;
+        this.out.flush();
+        this.file.getFD().sync();
+    }
+    
+    /**
+     * Closes the current generation; the following records go to a new one
+     * @return the generation closed, to be given to discardUpTo once a snapshot is saved
+     * @throws IOException 
+     */
+    public synchronized int rotate() throws IOException {
+        this.close();
+        return this.generation++;
+    }
+    
+    /**
+     * Deletes all generations up to a given one, after they were made obsolete by a snapshot
+     * @param generation the last generation to delete
+     */
+    public synchronized void discardUpTo(int generation) {
+        for (int g : this.listGenerations()) {
+            if (g > generation) continue;
+            File f = this.generationFile(g);
+            long length = f.length();
+            if (f.delete())
+                this.size -= length;
+        }
+    }
+    
+    /**
+     * Reads every record of every generation, oldest first.
+     * Reading a generation stops at the first incomplete or damaged record.
+     * New records are appended to a new generation afterwards.
+     * @param consumer what to do with each record
+     * @return the number of records read
+     * @throws IOException 
+     */
+    public synchronized int replay(Consumer<Record> consumer) throws IOException {
+        this.closeQuietly();
+        this.size = 0;
+        this.generation = 0;
+        if (!this.isEnabled()) return 0;
+        int count = 0;
+        for (int g : this.listGenerations()) {
+            File f = this.generationFile(g);
+            this.size += f.length();
+            this.generation = g + 1;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                Record r;
+                while ((r = readRecord(in)) != null) {
+                    consumer.accept(r);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @param in the input stream
+     * @return the record, or null if there are no more valid records
+     * @throws IOException 
+     */
+    private static Record readRecord(DataInputStream in) throws IOException {
+        byte[] payload;
+        int checksum;
+        try {
+            int length = in.readInt();
+            if (length <= 0) return null;
+            payload = new byte[length];
+            in.readFully(payload);
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum)
+            return null;
+        
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = data.readByte();
+        switch (type) {
+            case SELL:
+                return new Record(type, data.readUTF(), data.readInt(), data.readInt(), data.readLong(), null);
+            case REFUND:
+                return new Record(type, data.readUTF(), data.readInt(), data.readInt(), 0L, null);
+            case PUT:
+                String ID = data.readUTF();
+                int version = Binary.readVarInt(data);
+                if (version > Codecs.PERFORMANCE.getVersion())
+                    throw new IOException(String.format("Journal record written by a newer version (format %d).", version));
+                return new Record(type, ID, 0, 0, 0L, Codecs.PERFORMANCE.read(data, version));
+            case REMOVE:
+                return new Record(type, data.readUTF(), 0, 0, 0L, null);
+            case CLEAR:
+                return new Record(type, "", 0, 0, 0L, null);
+            case SELL_SEATS:
+                final String SHOW = data.readUTF();
+                final int HALL    = data.readInt();
+                final long MILLIS = data.readLong();
+                int[] seats = new int[data.readInt()];
+                for (int i = 0; i < seats.length; i++)
+                    seats[i] = data.readInt();
+                return new Record(type, SHOW, HALL, seats, MILLIS);
+            case PRICE:
+                return new Record(type, data.readUTF(), data.readDouble(), data.readLong());
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * @return the generations on disk, sorted
+     */
+    private ArrayList<Integer> listGenerations() {
+        ArrayList<Integer> result = new ArrayList<>();
+        final File BASE = new File(this.fname).getAbsoluteFile();
+        final String PREFIX = BASE.getName() + ".";
+        File[] files = BASE.getParentFile().listFiles();
+        if (files == null) return result;
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.startsWith(PREFIX)) continue;
+            try {
+                result.add(Integer.parseInt(name.substring(PREFIX.length())));
+            } catch (NumberFormatException e) {
+                // not a generation of this journal
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+    
+    /**
+     * @param generation the generation
+     * @return the file of the generation
+     */
+    private File generationFile(int generation) {
+        return new File(this.fname + "." + generation);
+    }
+    
+    /**
+     * Closes the journal file, if open
+     */
+    public synchronized void close() throws IOException {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } finally {
+                this.out  = null;
+                this.file = null;
+            }
+        }
+    }
+    
+    /**
+     * Closes the journal file ignoring errors
+     */
+    private void closeQuietly() {
+        try {
+            this.close();
+        } catch (IOException e) {
+            // already closed by close
+        }
+    }
+    
+    /**
+     * Constructor of the class
+     */
+    public Journal() {
+        this.fname      = "";
+        this.generation = 0;
+        this.size       = 0;
+        this.out        = null;
+        this.file       = null;
+    }
+}
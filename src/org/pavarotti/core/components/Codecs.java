@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.components;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+
+import org.dma.io.Binary;
+import org.dma.io.Codec;
+import org.pavarotti.core.intf.Person;
+import org.pavarotti.core.throwable.TicketNotSoldException;
+
+/**
+ * Binary codecs for the components saved by the Company.
+ * Dates and times are written as epoch days and epoch seconds (UTC), integers as
+ * variable length integers, and the seats of a hall as its sold bitset followed by
+ * the sale times of the sold seats only, or as the slot of a mapped SeatFile they
+ * live in (since version 2). Since version 3 the layout of the venue is written
+ * instead of the number of seats, and since version 4 a hall also has the base
+ * prices it had before, so that repricing keeps the prices seats were sold at.
+ * Since version 5 the seats of a hall are tagged as stored inline, in a slot or empty,
+ * and a hall with no seats sold is written without them and read back unbuilt.
+ * @author Ovelhas do Presépio
+ */
+public class Codecs {
+    public static final Codec<Ticket> TICKET = new Codec<Ticket>() {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+        
+        @Override
+        public void write(DataOutput out, Ticket t) throws IOException {
+            out.writeDouble(t.getPrice());
+            Binary.writeString(out, t.getSeat());
+            out.writeBoolean(t.isSold());
+            if (t.isSold()) {
+                try {
+                    writeDateTime(out, t.getWhen());
+                } catch (TicketNotSoldException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+        
+        @Override
+        public Ticket read(DataInput in, int version) throws IOException {
+            final Double PRICE = in.readDouble();
+            final String SEAT  = Binary.readString(in);
+            final boolean SOLD = in.readBoolean();
+            return new Ticket(PRICE, SEAT, SOLD, SOLD ? readDateTime(in) : null);
+        }
+    };
+    
+    public static final Codec<ConcertHall> CONCERT_HALL = new Codec<ConcertHall>() {
+        private static final byte INLINE = 0;   // the sold bitset and the sale times follow
+        private static final byte MAPPED = 1;   // the slot in the SeatFile follows
+        private static final byte EMPTY  = 2;   // no seat is sold
+        
+        @Override
+        public int getVersion() {
+            return 5;
+        }
+        
+        @Override
+        public void write(DataOutput out, ConcertHall h) throws IOException {
+            out.writeDouble(h.getBasePrice());
+            writeDateTime(out, h.getWhen());
+            writeLayout(out, h.getLayout());
+            writePrices(out, h.prices());
+            final SeatState SEATS = h.seats();
+            if (h.isMapped()) {
+                out.writeByte(MAPPED);
+                Binary.writeVarInt(out, h.getSlot());
+                return;
+            }
+            if (SEATS == null || h.countSold() == 0) {
+                out.writeByte(EMPTY);
+                return;
+            }
+            // the words are copied once, so a sale made meanwhile cannot add a time the
+            // words written do not announce
+            final long[] SOLD = new long[SEATS.words()];
+            out.writeByte(INLINE);
+            for (int w = 0; w < SOLD.length; w++) {
+                SOLD[w] = SEATS.getWord(w);
+                out.writeLong(SOLD[w]);
+            }
+            for (int i = 0; i < SEATS.capacity(); i++)
+                if ((SOLD[i >>> 6] & (1L << i)) != 0)
+                    Binary.writeVarLong(out, SEATS.soldStamp(i) / 1000);
+        }
+        
+        @Override
+        public ConcertHall read(DataInput in, int version) throws IOException {
+            final Double BASEPRICE = in.readDouble();
+            final LocalDateTime WHEN = readDateTime(in);
+            final VenueLayout LAYOUT = (version >= 3) ? readLayout(in) : VenueLayout.STANDARD;
+            final ConcertHall.Prices PRICES = (version >= 4) ? readPrices(in, BASEPRICE) : new ConcertHall.Prices(BASEPRICE);
+            final int CAPACITY = (version >= 3) ? LAYOUT.getCapacity() : Binary.readVarInt(in);
+            final byte SEATS = (version >= 5) ? in.readByte()
+                             : (version >= 2 && in.readBoolean()) ? MAPPED : INLINE;
+            ConcertHall h;
+            if (SEATS == MAPPED) {
+                // the seats are bound to their slot once the SeatFile is open
+                h = new ConcertHall(PRICES, WHEN, LAYOUT, new SeatState.Heap(CAPACITY), Binary.readVarInt(in));
+            } else if (SEATS == EMPTY) {
+                h = new ConcertHall(PRICES, WHEN, LAYOUT);
+            } else if (SEATS == INLINE) {
+                final long[] SOLD   = new long[(CAPACITY + 63) >>> 6];
+                final long[] SOLDAT = new long[CAPACITY];
+                for (int i = 0; i < SOLD.length; i++)
+                    SOLD[i] = in.readLong();
+                for (int i = 0; i < CAPACITY; i++)
+                    if ((SOLD[i >>> 6] & (1L << i)) != 0)
+                        SOLDAT[i] = Binary.readVarLong(in) * 1000;
+                h = new ConcertHall(PRICES, WHEN, LAYOUT, new SeatState.Heap(SOLD, SOLDAT), -1);
+            } else {
+                throw new StreamCorruptedException(String.format("Unknown storage %d of the seats of a hall.", SEATS));
+            }
+            if (CAPACITY != h.getCapacity())
+                throw new StreamCorruptedException(String.format("Hall with %d seats instead of %d.", CAPACITY, h.getCapacity()));
+            return h;
+        }
+    };
+    
+    public static final Codec<Performance> PERFORMANCE = new Codec<Performance>() {
+        @Override
+        public int getVersion() {
+            return CONCERT_HALL.getVersion();
+        }
+        
+        @Override
+        public void write(DataOutput out, Performance p) throws IOException {
+            Binary.writeString(out, p.getID());
+            Binary.writeString(out, p.getName());
+            Binary.writeVarInt(out, p.getHall().size());
+            for (ConcertHall h : p.getHall())
+                CONCERT_HALL.write(out, h);
+            writeIntegers(out, p.getSingers());
+            writeIntegers(out, p.getDancers());
+            writeInteger(out, p.getOperaDirector());
+            writeInteger(out, p.getCastingDirector());
+        }
+        
+        @Override
+        public Performance read(DataInput in, int version) throws IOException {
+            final String ID   = Binary.readString(in);
+            final String NAME = Binary.readString(in);
+            final int HALLS = Binary.readVarInt(in);
+            ArrayList<ConcertHall> hall = new ArrayList<>(HALLS);
+            for (int i = 0; i < HALLS; i++)
+                hall.add(CONCERT_HALL.read(in, version));
+            final ArrayList<Integer> SINGERS = readIntegers(in);
+            final ArrayList<Integer> DANCERS = readIntegers(in);
+            final Integer OPERA   = readInteger(in);
+            final Integer CASTING = readInteger(in);
+            return new Performance(ID, NAME, hall, null, SINGERS, DANCERS, OPERA, CASTING);
+        }
+    };
+    
+    public static final Codec<Performer> PERFORMER = new Codec<Performer>() {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+        
+        @Override
+        public void write(DataOutput out, Performer p) throws IOException {
+            Binary.writeVarInt(out, p.getID());
+            writePerson(out, p);
+            Binary.writeString(out, p.getPosition());
+            writeDate(out, p.getAdmission());
+        }
+        
+        @Override
+        public Performer read(DataInput in, int version) throws IOException {
+            final int ID = Binary.readVarInt(in);
+            final String NAME = Binary.readString(in);
+            final Person.Gender GENDER = readGender(in);
+            final LocalDate BIRTHDAY = readDate(in);
+            return new Performer(ID, NAME, GENDER, BIRTHDAY, Binary.readString(in), readDate(in));
+        }
+    };
+    
+    public static final Codec<Director> DIRECTOR = new Codec<Director>() {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+        
+        @Override
+        public void write(DataOutput out, Director d) throws IOException {
+            Binary.writeVarInt(out, d.getID());
+            writePerson(out, d);
+            Binary.writeString(out, d.getPosition());
+            writeDate(out, d.getAdmission());
+        }
+        
+        @Override
+        public Director read(DataInput in, int version) throws IOException {
+            final int ID = Binary.readVarInt(in);
+            final String NAME = Binary.readString(in);
+            final Person.Gender GENDER = readGender(in);
+            final LocalDate BIRTHDAY = readDate(in);
+            return new Director(ID, NAME, GENDER, BIRTHDAY, Binary.readString(in), readDate(in));
+        }
+    };
+    
+    public static final Codec<CompanyInfo> COMPANY_INFO = new Codec<CompanyInfo>() {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+        
+        @Override
+        public void write(DataOutput out, CompanyInfo c) throws IOException {
+            Binary.writeString(out, c.getName());
+            Binary.writeString(out, c.getCity());
+            Binary.writeString(out, c.getCountry());
+            writeInteger(out, c.getDirector());
+        }
+        
+        @Override
+        public CompanyInfo read(DataInput in, int version) throws IOException {
+            final String NAME    = Binary.readString(in);
+            final String CITY    = Binary.readString(in);
+            final String COUNTRY = Binary.readString(in);
+            return new CompanyInfo(NAME, CITY, COUNTRY, readInteger(in));
+        }
+    };
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * Writes the name, gender and birthday of a person
+     * @param out the output
+     * @param p the person
+     * @throws IOException 
+     */
+    private static void writePerson(DataOutput out, Person p) throws IOException {
+        Binary.writeString(out, p.getName());
+        out.writeByte((p.getGender() == null) ? -1 : p.getGender().ordinal());
+        writeDate(out, p.getBirthday());
+    }
+    
+    /**
+     * @param in the input
+     * @return the gender, or null
+     * @throws IOException 
+     */
+    private static Person.Gender readGender(DataInput in) throws IOException {
+        final byte G = in.readByte();
+        if (G < 0) return null;
+        if (G >= Person.Gender.values().length)
+            throw new StreamCorruptedException("Unknown gender " + G + ".");
+        return Person.Gender.values()[G];
+    }
+    
+    /**
+     * @param out the output
+     * @param d the date, which may be null
+     * @throws IOException 
+     */
+    private static void writeDate(DataOutput out, LocalDate d) throws IOException {
+        out.writeBoolean(d != null);
+        if (d != null)
+            Binary.writeSignedVarLong(out, d.toEpochDay());
+    }
+    
+    /**
+     * @param in the input
+     * @return the date, or null
+     * @throws IOException 
+     */
+    private static LocalDate readDate(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        return LocalDate.ofEpochDay(Binary.readSignedVarLong(in));
+    }
+    
+    /**
+     * @param out the output
+     * @param dt the date and time, to the second
+     * @throws IOException 
+     */
+    private static void writeDateTime(DataOutput out, LocalDateTime dt) throws IOException {
+        Binary.writeSignedVarLong(out, dt.toEpochSecond(ZoneOffset.UTC));
+    }
+    
+    /**
+     * @param in the input
+     * @return the date and time
+     * @throws IOException 
+     */
+    private static LocalDateTime readDateTime(DataInput in) throws IOException {
+        return LocalDateTime.ofEpochSecond(Binary.readSignedVarLong(in), 0, ZoneOffset.UTC);
+    }
+    
+    /**
+     * @param out the output
+     * @param prices the base prices of a hall, the latest of which was already written
+     * @throws IOException 
+     */
+    private static void writePrices(DataOutput out, ConcertHall.Prices prices) throws IOException {
+        Binary.writeVarInt(out, prices.size() - 1);
+        for (int i = 0; i < prices.size() - 1; i++)
+            out.writeDouble(prices.base[i]);
+        for (int i = 0; i < prices.size(); i++)
+            Binary.writeSignedVarLong(out, prices.since[i]);
+    }
+    
+    /**
+     * @param in the input
+     * @param current the latest base price, already read
+     * @return the base prices of a hall
+     * @throws IOException 
+     */
+    private static ConcertHall.Prices readPrices(DataInput in, double current) throws IOException {
+        final int OLDER = Binary.readVarInt(in);
+        final double[] BASE  = new double[OLDER + 1];
+        final long[]   SINCE = new long[OLDER + 1];
+        for (int i = 0; i < OLDER; i++)
+            BASE[i] = in.readDouble();
+        BASE[OLDER] = current;
+        for (int i = 0; i <= OLDER; i++)
+            SINCE[i] = Binary.readSignedVarLong(in);
+        return new ConcertHall.Prices(SINCE, BASE);
+    }
+    
+    /**
+     * @param out the output
+     * @param layout the layout of a venue, with its prices only if they are not the standard ones
+     * @throws IOException
+     */
+    private static void writeLayout(DataOutput out, VenueLayout layout) throws IOException {
+        Binary.writeVarInt(out, layout.getRows());
+        Binary.writeVarInt(out, layout.getCols());
+        out.writeBoolean(layout.hasStandardPrices());
+        if (!layout.hasStandardPrices())
+            for (int r = 0; r < layout.getRows(); r++)
+                out.writeDouble(layout.getMultiplier(r));
+    }
+    
+    /**
+     * @param in the input
+     * @return the layout, shared with the other halls at the same venue
+     * @throws IOException
+     */
+    private static VenueLayout readLayout(DataInput in) throws IOException {
+        final int ROWS = Binary.readVarInt(in);
+        final int COLS = Binary.readVarInt(in);
+        final boolean STANDARD = in.readBoolean();
+        try {
+            if (STANDARD && ROWS == VenueLayout.STANDARD.getRows() && COLS == VenueLayout.STANDARD.getCols())
+                return VenueLayout.STANDARD;
+            if (STANDARD)
+                return VenueLayout.of(ROWS, COLS);
+            final double[] MULTIPLIERS = new double[ROWS];
+            for (int r = 0; r < ROWS; r++)
+                MULTIPLIERS[r] = in.readDouble();
+            return VenueLayout.of(ROWS, COLS, MULTIPLIERS);
+        } catch (IllegalArgumentException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+    }
+    
+    /**
+     * @param out the output
+     * @param i the integer, which may be null
+     * @throws IOException 
+     */
+    private static void writeInteger(DataOutput out, Integer i) throws IOException {
+        out.writeBoolean(i != null);
+        if (i != null)
+            Binary.writeSignedVarLong(out, i);
+    }
+    
+    /**
+     * @param in the input
+     * @return the integer, or null
+     * @throws IOException 
+     */
+    private static Integer readInteger(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        return (int) Binary.readSignedVarLong(in);
+    }
+    
+    /**
+     * @param out the output
+     * @param list the list of integers
+     * @throws IOException 
+     */
+    private static void writeIntegers(DataOutput out, ArrayList<Integer> list) throws IOException {
+        Binary.writeVarInt(out, list.size());
+        for (Integer i : list)
+            Binary.writeSignedVarLong(out, i);
+    }
+    
+    /**
+     * @param in the input
+     * @return the list of integers
+     * @throws IOException 
+     */
+    private static ArrayList<Integer> readIntegers(DataInput in) throws IOException {
+        final int SIZE = Binary.readVarInt(in);
+        ArrayList<Integer> list = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++)
+            list.add((int) Binary.readSignedVarLong(in));
+        return list;
+    }
+}
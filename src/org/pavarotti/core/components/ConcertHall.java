@@ -16,50 +16,92 @@
  */
 package org.pavarotti.core.components;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.pavarotti.core.throwable.*;
 
 /**
- *
+ * The seats of a hall on a given date.
+ * Seat state is kept in a sold bitset and a parallel array of sale timestamps
+ * (epoch milliseconds), either on the heap or in a slot of a mapped SeatFile;
+ * Ticket objects are only built when asked for.
+ * Seats are sold and refunded with atomic compare-and-set, so a hall may be used
+ * from several threads; the sale time of a seat is written right after it is claimed.
+ * The number of sold seats, in total and per row, is kept up to date on every sale and
+ * refund, so counting the sold seats and the revenue of a hall does not scan it.
+ * The rows, seats per row, prices and seat labels come from a VenueLayout shared by
+ * every hall at the same venue.
+ * Repricing a hall keeps its sales: the base prices of the hall are kept over time,
+ * so the price a seat was sold at is that of the base price when it was sold.
+ * A hall is only a date and its prices until its first sale: the seats are built when
+ * a seat is first claimed, so that dates with no sales cost neither memory nor space
+ * when saved.
  * @author Ovelhas do Presépio
  */
 public class ConcertHall implements Serializable {
     private static final long serialVersionUID = 8704451451184707606L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("basePrice", Double.class),
+        new ObjectStreamField("when", LocalDateTime.class),
+        new ObjectStreamField("sold", long[].class),
+        new ObjectStreamField("soldAt", long[].class),
+        new ObjectStreamField("layout", VenueLayout.class),
+        new ObjectStreamField("priceSince", long[].class),
+        new ObjectStreamField("priceBase", double[].class)
+    };
     
-    private final int ROWS = 10;                // de   A a   J
-    private final int COLS = 20;                // de  01 a  20
-    private final int CAPACITY = ROWS * COLS;   // de A01 a J20
-    private final ArrayList<Ticket> tickets;
-    private Double basePrice;
+    private VenueLayout layout;                 // rows, seats per row, prices and labels
+    private transient volatile SeatState seats; // sold bitset and sale times, null until the first sale
+    private transient int slot = -1;            // slot in the SeatFile, -1 if on the heap
+    private transient volatile Counters counters;   // sold seats, built on first use
+    private transient volatile Prices prices;   // base prices over time
     private LocalDateTime when;
     
     /**
-     * @return the number of columns
+     * @return the layout of the venue
      */
-    public int getRows() {
-        return ROWS;
+    public VenueLayout getLayout() {
+        return layout;
     }
     
     /**
      * @return the number of rows
      */
+    public int getRows() {
+        return layout.getRows();
+    }
+    
+    /**
+     * @return the number of columns
+     */
     public int getCols() {
-        return COLS;
+        return layout.getCols();
     }
     
     /**
      * @return the first seat
      */
     public String getFirstSeat() {
-        return tickets.get(0).getSeat();
+        return intToSeat(0);
     }
     
     /**
      * @return the last seat
      */
     public String getLastSeat() {
-        return tickets.get(CAPACITY-1).getSeat();
+        return intToSeat(layout.getCapacity() - 1);
     }
     
     /**
@@ -68,10 +110,10 @@ public class ConcertHall implements Serializable {
     public ArrayList<ArrayList<Boolean>> hallSoldMatrix() {
         ArrayList<ArrayList<Boolean>> result = new ArrayList<>();
         int count = 0;
-        for (int i = 0; i < ROWS; i++) {
+        for (int i = 0; i < layout.getRows(); i++) {
             ArrayList<Boolean> aux = new ArrayList<>();
-            for (int j = 0; j < COLS; j++) {
-                aux.add(tickets.get(count).isSold());
+            for (int j = 0; j < layout.getCols(); j++) {
+                aux.add(isSold(count));
                 count++;
             }
             result.add(aux);
@@ -97,64 +139,443 @@ public class ConcertHall implements Serializable {
      * @return the total capacity
      */
     public int getCapacity() {
-        return CAPACITY;
+        return layout.getCapacity();
     }
     
     /**
-     * @return the tickets
+     * @return the tickets, built from the current state of the seats
      */
     public ArrayList<Ticket> getTickets() {
+        final int CAPACITY = layout.getCapacity();
+        ArrayList<Ticket> tickets = new ArrayList<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++)
+            tickets.add(getTicket(i));
         return tickets;
     }
     
     /**
      * @param index the index of the seat (usually provided by searchTicket)
-     * @return the ticket
+     * @return the ticket, bound to this hall
+     * @throws IndexOutOfBoundsException
      */
-    public Ticket getTicket(int index) {
-        return tickets.get(index);
+    public Ticket getTicket(int index) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        return new Ticket(this, index);
     }
     
     /**
      * @param SEAT the seat to search for
-     * @return the index of the seat
+     * @return the index of the seat, or -1 if the seat does not exist
      */
     public Integer searchTicket(final String SEAT) {
-        for (Integer i = 0; i < tickets.size(); i++) {
-            if (tickets.get(i).getSeat().equalsIgnoreCase(SEAT))
-                return i;
+        try {
+            return seatToInt(SEAT);
+        } catch (SeatNotFoundException e) {
+            return -1;
         }
-        return -1;
+    }
+    
+    /**
+     * Converts a seat number to the correspondent integer (e.g. "B05" is 25)
+     * @param SEAT the seat number, case insensitive
+     * @return the index of the seat
+     * @throws SeatNotFoundException 
+     */
+    public int seatToInt(final String SEAT) throws SeatNotFoundException {
+        return layout.indexOf(SEAT);
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return true if the seat has been sold
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean isSold(int index) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        final SeatState S = seats;
+        return S != null && (S.getWord(index >>> 6) & (1L << index)) != 0;
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return the date and time the seat was sold
+     * @throws IndexOutOfBoundsException
+     * @throws TicketNotSoldException
+     */
+    public LocalDateTime whenSold(int index) throws IndexOutOfBoundsException, TicketNotSoldException {
+        LocalDateTime dt = whenSoldOrNull(index);
+        if (dt == null) throw new TicketNotSoldException("Not sold yet.");
+        return dt;
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return when the seat was sold, in epoch milliseconds, or 0 if not sold or if
+     * the sale time is unknown (seats restored from files without sale times)
+     * @throws IndexOutOfBoundsException
+     */
+    public long getSoldMillis(int index) throws IndexOutOfBoundsException {
+        return isSold(index) ? seats.soldStamp(index) : 0L;
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return the date and time the seat was sold, or null if not sold
+     */
+    LocalDateTime whenSoldOrNull(int index) {
+        return isSold(index) ? millisToDateTime(seats.soldStamp(index)) : null;
+    }
+    
+    /**
+     * The price a sale of the seat made now is recorded at, which lags a new base price
+     * until it takes effect (see setBasePrice)
+     * @param index the index of the seat
+     * @return the price of the seat
+     * @throws IndexOutOfBoundsException
+     */
+    public Double getPrice(int index) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        return intToPrice(prices.now(), index);
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return the price the seat was sold at
+     * @throws IndexOutOfBoundsException
+     * @throws TicketNotSoldException
+     */
+    public Double getSoldPrice(int index) throws IndexOutOfBoundsException, TicketNotSoldException {
+        if (!isSold(index)) throw new TicketNotSoldException("Not sold yet.");
+        return intToPrice(prices.at(seats.soldStamp(index)), index);
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return the price the seat was sold at if it is sold, its current price otherwise
+     */
+    Double priceOf(int index) {
+        return isSold(index) ? intToPrice(prices.at(seats.soldStamp(index)), index) : getPrice(index);
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return the seat description
+     * @throws IndexOutOfBoundsException
+     */
+    public String getSeat(int index) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        return intToSeat(index);
+    }
+    
+    /**
+     * @param index the index of the seat to sell
+     * @throws IndexOutOfBoundsException
+     * @throws TicketSoldException 
+     */
+    public void sell(int index) throws IndexOutOfBoundsException, TicketSoldException {
+        this.sell(index, System.currentTimeMillis());
+    }
+    
+    /**
+     * Claims the seat and then writes its sale time: readers that find it sold before
+     * the time is written wait for it (see SeatState.soldStamp)
+     * @param index the index of the seat to sell
+     * @param millis when the seat is sold, in epoch milliseconds
+     * @throws IndexOutOfBoundsException
+     * @throws TicketSoldException 
+     */
+    public void sell(int index, long millis) throws IndexOutOfBoundsException, TicketSoldException {
+        checkIndex(index);
+        if (!claim(index)) {
+            final long WHEN = seats.soldStamp(index);
+            throw new TicketSoldException(WHEN == 0L
+                    ? "Already sold."
+                    : String.format("Already sold on the %s.", millisToDateTime(WHEN).toString())
+            );
+        }
+        seats.setStamp(index, millis);
+    }
+    
+    /**
+     * Sells several seats at once: either all of them are sold or none is.
+     * Concurrent calls for seats in common may both fail, so callers should not let
+     * them overlap.
+     * @param indexes the distinct indexes of the seats to sell
+     * @param millis when the seats are sold, in epoch milliseconds
+     * @throws IndexOutOfBoundsException
+     * @throws TicketSoldException if any of the seats is already sold
+     */
+    public void sell(int[] indexes, long millis) throws IndexOutOfBoundsException, TicketSoldException {
+        for (int index : indexes)
+            checkIndex(index);
+        for (int i = 0; i < indexes.length; i++) {
+            if (!claim(indexes[i])) {
+                for (int j = 0; j < i; j++)
+                    release(indexes[j]);
+                throw new TicketSoldException(intToSeat(indexes[i]));
+            }
+        }
+        for (int index : indexes)
+            seats.setStamp(index, millis);
+    }
+    
+    /**
+     * @param index the index of the seat to refund
+     * @throws IndexOutOfBoundsException
+     * @throws TicketNotSoldException 
+     */
+    public void refund(int index) throws IndexOutOfBoundsException, TicketNotSoldException {
+        checkIndex(index);
+        if (!release(index)) throw new TicketNotSoldException("Not sold yet.");
+    }
+    
+    /**
+     * Marks a seat as sold regardless of its current state (used to replay saved changes)
+     * @param index the index of the seat
+     * @param millis when the seat was sold, in epoch milliseconds
+     * @throws IndexOutOfBoundsException 
+     */
+    public void markSold(int index, long millis) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        claim(index);
+        seats.setStamp(index, millis);
+    }
+    
+    /**
+     * Marks a seat as available regardless of its current state (used to replay saved changes)
+     * @param index the index of the seat
+     * @throws IndexOutOfBoundsException 
+     */
+    public void markAvailable(int index) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        release(index);
     }
     
     /**
      * @return the sold seats
      */
     public int countSold() {
-        int count = 0;
-        for (Integer i = 0; i < tickets.size(); i++) {
-            if (this.tickets.get(i).isSold())
-                count++;
+        return counters().sold.get();
+    }
+    
+    /**
+     * @param row the row
+     * @return the sold seats of the row
+     * @throws IndexOutOfBoundsException
+     */
+    public int countSold(int row) throws IndexOutOfBoundsException {
+        if (row < 0 || row >= layout.getRows())
+            throw new IndexOutOfBoundsException(String.format("Row %d out of bounds.", row));
+        return counters().rows.get(row);
+    }
+    
+    /**
+     * @return the revenue of the sold seats, at the prices they were sold at
+     */
+    public Double getRevenue() {
+        double revenue = 0.0;
+        for (int r = 0; r < layout.getRows(); r++)
+            revenue += getRevenue(r);
+        return revenue;
+    }
+    
+    /**
+     * Counts the revenue of a row from its counter while the hall was never repriced,
+     * or from the sale time of each sold seat otherwise
+     * @param row the row
+     * @return the revenue of the sold seats of the row, at the prices they were sold at
+     * @throws IndexOutOfBoundsException
+     */
+    public double getRevenue(int row) throws IndexOutOfBoundsException {
+        final int SOLD = countSold(row);
+        final Prices P = prices;
+        final int COLS = layout.getCols();
+        if (P.size() == 1)
+            return SOLD * intToPrice(P.current(), row * COLS);
+        double revenue = 0.0;
+        for (long mask = rowMask(row); mask != 0; mask &= mask - 1) {
+            final int INDEX = row * COLS + Long.numberOfTrailingZeros(mask);
+            revenue += intToPrice(P.at(seats.soldStamp(INDEX)), INDEX);
+        }
+        return revenue;
+    }
+    
+    /**
+     * Recounts the sold seats from their state and compares them with the kept counters
+     * (for tests, once no sale or refund is running)
+     * @return true if the counters are consistent with the seats
+     */
+    boolean checkCounters() {
+        final Counters KEPT    = counters();
+        final Counters COUNTED = count();
+        if (KEPT.sold.get() != COUNTED.sold.get())
+            return false;
+        for (int r = 0; r < layout.getRows(); r++)
+            if (KEPT.rows.get(r) != COUNTED.rows.get(r))
+                return false;
+        return true;
+    }
+    
+    /**
+     * Claims a seat, keeping the counters. The counters are taken before the seat
+     * is claimed, so that counters built meanwhile never include it twice.
+     * @param index the index of the seat
+     * @return true if the seat was available and is now sold
+     */
+    private boolean claim(int index) {
+        final Counters C = counters();
+        if (!materialize().claim(index)) return false;
+        C.sold.incrementAndGet();
+        C.rows.incrementAndGet(index / layout.getCols());
+        return true;
+    }
+    
+    /**
+     * Releases a seat, keeping the counters
+     * @param index the index of the seat
+     * @return true if the seat was sold and is now available
+     */
+    private boolean release(int index) {
+        final Counters C = counters();
+        final SeatState S = seats;
+        if (S == null || !S.release(index)) return false;
+        C.sold.decrementAndGet();
+        C.rows.decrementAndGet(index / layout.getCols());
+        return true;
+    }
+    
+    /**
+     * @return the counters of the sold seats, counting them if needed
+     */
+    private Counters counters() {
+        Counters c = counters;
+        if (c == null) {
+            synchronized (this) {
+                c = counters;
+                if (c == null)
+                    counters = c = count();
+            }
+        }
+        return c;
+    }
+    
+    /**
+     * @return the sold seats, counted from their state
+     */
+    private Counters count() {
+        Counters c = new Counters(layout.getRows());
+        for (int r = 0; r < layout.getRows(); r++) {
+            final int SOLD = Long.bitCount(rowMask(r));
+            c.rows.set(r, SOLD);
+            c.sold.addAndGet(SOLD);
+        }
+        return c;
+    }
+    
+    /**
+     * The sold seats of a hall, in total and per row
+     */
+    private static class Counters {
+        final AtomicInteger      sold = new AtomicInteger();
+        final AtomicIntegerArray rows;
+        
+        Counters(int rows) {
+            this.rows = new AtomicIntegerArray(rows);
         }
-        return count;
     }
     
     /**
      * @return the available seats
      */
     public int countAvailable() {
-        return CAPACITY - countSold();
+        return layout.getCapacity() - countSold();
+    }
+    
+    /**
+     * Finds the best block of contiguous available seats in a row: the front rows first,
+     * as they are the highest price tiers, then the block closest to the centre of the row.
+     * Each row is scanned as a mask of its available seats (rows of up to 64 seats), where
+     * the blocks of N seats start at the bits left set after ANDing N shifts of the mask.
+     * @param count the number of seats
+     * @return the indexes of the seats, or an empty array if there is no such block
+     */
+    public int[] findBestSeats(int count) {
+        final int ROWS = layout.getRows();
+        final int COLS = layout.getCols();
+        if (count <= 0 || count > COLS)
+            return new int[0];
+        final long ROW = (COLS == 64) ? -1L : (1L << COLS) - 1;
+        for (int r = 0; r < ROWS; r++) {
+            final long FREE = ~rowMask(r) & ROW;
+            long starts = FREE;
+            for (int k = 1; k < count && starts != 0; k++)
+                starts &= FREE >>> k;
+            if (starts == 0) continue;
+            int best = -1;
+            int bestDistance = Integer.MAX_VALUE;
+            for (; starts != 0; starts &= starts - 1) {
+                final int START    = Long.numberOfTrailingZeros(starts);
+                final int DISTANCE = Math.abs(2 * START + count - COLS);    // twice the offset from the centre
+                if (DISTANCE < bestDistance) {
+                    best = START;
+                    bestDistance = DISTANCE;
+                }
+            }
+            int[] result = new int[count];
+            for (int i = 0; i < count; i++)
+                result[i] = r * COLS + best + i;
+            return result;
+        }
+        return new int[0];
+    }
+    
+    /**
+     * @param row the row
+     * @return the sold seats of the row, one bit per column
+     */
+    private long rowMask(int row) {
+        final int COLS   = layout.getCols();
+        final int START  = row * COLS;
+        final int W      = START >>> 6;
+        final int OFFSET = START & 63;
+        final SeatState S = seats;
+        if (S == null) return 0L;
+        long bits = S.getWord(W) >>> OFFSET;
+        if (OFFSET + COLS > 64 && W + 1 < S.words())
+            bits |= S.getWord(W + 1) << (64 - OFFSET);
+        return (COLS == 64) ? bits : bits & ((1L << COLS) - 1);
     }
     
     /**
-     * Sets the initial state for the seats
-     * @param basePrice the base price for tickets
+     * @return the state of the seats, built on the heap with every seat available if the
+     * hall has none yet
      */
-    private void initTickets() {
-        tickets.clear();
-        for (Integer i = 0; i < CAPACITY; i++) {
-            tickets.add(new Ticket(intToPrice(basePrice, i), intToSeat(i)));
+    private SeatState materialize() {
+        SeatState s = seats;
+        if (s == null) {
+            synchronized (this) {
+                s = seats;
+                if (s == null)
+                    seats = s = new SeatState.Heap(layout.getCapacity());
+            }
         }
+        return s;
+    }
+    
+    /**
+     * @return true if the seats of the hall have been built, false while it never had a sale
+     */
+    public boolean isMaterialized() {
+        return seats != null;
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @throws IndexOutOfBoundsException 
+     */
+    private void checkIndex(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= layout.getCapacity())
+            throw new IndexOutOfBoundsException(String.format("Seat index %d out of bounds.", index));
     }
     
     /**
@@ -162,8 +583,8 @@ public class ConcertHall implements Serializable {
      * @param i the integer
      * @return the seat number
      */
-    private String intToSeat(Integer i) {
-        return String.format("%c%02d", (char) ((i / COLS) + (int) 'A'), (i % COLS));
+    private String intToSeat(int i) {
+        return layout.label(i);
     }
     
     /**
@@ -172,25 +593,250 @@ public class ConcertHall implements Serializable {
      * @param i the integer representing the seat
      * @return the price for that seat
      */
-    private Double intToPrice(Double bp, Integer i) {
-        final int    R  = i / 20;
-        final double PV = (-0.45 * R) / (ROWS - 1) + 1.30;
-        return bp * PV;
+    private Double intToPrice(Double bp, int i) {
+        return layout.price(bp, i);
+    }
+    
+    /**
+     * @param millis the epoch milliseconds
+     * @return the correspondent local date and time
+     */
+    private static LocalDateTime millisToDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+    
+    /**
+     * @param dt the local date and time
+     * @return the correspondent epoch milliseconds
+     */
+    private static long dateTimeToMillis(LocalDateTime dt) {
+        return dt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
     
     /**
      * @return the base price
      */
     public Double getBasePrice() {
-        return basePrice;
+        return prices.current();
     }
     
     /**
+     * Reprices the hall from now on, keeping its sales
      * @param basePrice the base price
      */
     public void setBasePrice(Double basePrice) {
-        this.basePrice = basePrice;
-        this.initTickets();
+        this.setBasePrice(basePrice, System.currentTimeMillis());
+    }
+    
+    /**
+     * Reprices the hall, keeping its sales and the prices they were sold at.
+     * While no seat is sold only the latest base price is kept.
+     * Setting the same base price at the same time again changes nothing, so repricing
+     * can be replayed from the journal.
+     * The price takes effect from the next whole second, as sale times are saved to the second;
+     * until then seats are still quoted and sold at the previous one.
+     * @param basePrice the base price
+     * @param millis when the base price is set, in epoch milliseconds
+     */
+    public synchronized void setBasePrice(Double basePrice, long millis) {
+        Prices p = this.prices.with(basePrice, Math.floorDiv(millis + 999, 1000) * 1000);
+        if (countSold() == 0)
+            p = p.latest();
+        this.prices = p;
+    }
+    
+    /**
+     * @return the base prices over time (for codecs)
+     */
+    Prices prices() {
+        return prices;
+    }
+    
+    /**
+     * The base prices of a hall over time, oldest first; immutable.
+     * Each one applies to the seats sold from when it was set until the next one is,
+     * and the oldest one also to the seats sold before it was set.
+     */
+    static final class Prices {
+        final long[]   since;       // epoch milliseconds
+        final double[] base;
+        
+        /**
+         * @param base the base price, since ever
+         */
+        Prices(double base) {
+            this(new long[] {0L}, new double[] {base});
+        }
+        
+        /**
+         * @param since when each base price was set, ascending
+         * @param base the base prices
+         */
+        Prices(long[] since, double[] base) {
+            this.since = since;
+            this.base  = base;
+        }
+        
+        /**
+         * @return the number of base prices
+         */
+        int size() {
+            return base.length;
+        }
+        
+        /**
+         * @return the latest base price
+         */
+        double current() {
+            return base[base.length - 1];
+        }
+        
+        /**
+         * @return the base price a seat sold now is sold at
+         */
+        double now() {
+            return (base.length == 1) ? base[0] : this.at(System.currentTimeMillis());
+        }
+        
+        /**
+         * @param millis when, in epoch milliseconds
+         * @return the base price at the time
+         */
+        double at(long millis) {
+            int lo = 0;
+            int hi = since.length - 1;
+            while (lo < hi) {
+                final int MID = (lo + hi + 1) >>> 1;
+                if (since[MID] <= millis) lo = MID;
+                else                      hi = MID - 1;
+            }
+            return base[lo];
+        }
+        
+        /**
+         * @param price the base price
+         * @param millis when it is set, in epoch milliseconds
+         * @return the prices with the new one, which replaces one set at the same time
+         */
+        Prices with(double price, long millis) {
+            int i = 0;
+            while (i < since.length && since[i] < millis)
+                i++;
+            if (i < since.length && since[i] == millis) {
+                double[] b = base.clone();
+                b[i] = price;
+                return new Prices(since, b);
+            }
+            long[]   s = new long[since.length + 1];
+            double[] b = new double[base.length + 1];
+            System.arraycopy(since, 0, s, 0, i);
+            System.arraycopy(base,  0, b, 0, i);
+            s[i] = millis;
+            b[i] = price;
+            System.arraycopy(since, i, s, i + 1, since.length - i);
+            System.arraycopy(base,  i, b, i + 1, base.length - i);
+            return new Prices(s, b);
+        }
+        
+        /**
+         * @return the latest base price alone, keeping when it was set
+         */
+        Prices latest() {
+            final int LAST = base.length - 1;
+            return (LAST == 0) ? this : new Prices(new long[] {since[LAST]}, new double[] {base[LAST]});
+        }
+    }
+    
+    /**
+     * Loads the seat state from the tickets of an older version of the class
+     * @param tickets the tickets
+     */
+    private void loadTickets(ArrayList<Ticket> tickets) {
+        for (int i = 0; i < tickets.size() && i < layout.getCapacity(); i++) {
+            if (tickets.get(i).isSold()) {
+                try {
+                    markSold(i, dateTimeToMillis(tickets.get(i).getWhen()));
+                } catch (TicketNotSoldException e) {
+                    markSold(i, 0L);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the hall, converting the list of tickets written by older versions;
+     * a hall written without seats is left without them until its first sale
+     * @param in the input stream
+     * @throws IOException
+     * @throws ClassNotFoundException 
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        final long[]   SINCE = (long[]) fields.get("priceSince", null);
+        final double[] BASE  = (double[]) fields.get("priceBase", null);
+        this.prices    = (SINCE == null || BASE == null)
+                ? new Prices((Double) fields.get("basePrice", null))
+                : new Prices(SINCE, BASE);
+        this.when      = (LocalDateTime) fields.get("when", null);
+        this.layout    = (VenueLayout) fields.get("layout", VenueLayout.STANDARD);
+        this.slot      = -1;
+        if (this.layout == null)
+            this.layout = VenueLayout.STANDARD;
+        final long[] SOLD   = (long[]) fields.get("sold", null);
+        final long[] SOLDAT = (long[]) fields.get("soldAt", null);
+        if (SOLD != null && SOLDAT != null)
+            this.seats = new SeatState.Heap(SOLD, SOLDAT);
+        else if (fields.getObjectStreamClass().getField("tickets") != null)
+            loadTickets(ticketsOf(fields.get("tickets", null)));
+    }
+    
+    /**
+     * @param field the tickets of a hall saved by an older version of the class
+     * @return the tickets, checked one by one, or none if the field is null
+     * @throws InvalidObjectException if the field is not a list of tickets
+     */
+    private static ArrayList<Ticket> ticketsOf(Object field) throws InvalidObjectException {
+        ArrayList<Ticket> tickets = new ArrayList<>();
+        if (field == null)
+            return tickets;
+        if (!(field instanceof List))
+            throw new InvalidObjectException("The tickets of the hall are not a list.");
+        for (Object o : (List<?>) field) {
+            if (!(o instanceof Ticket))
+                throw new InvalidObjectException("The tickets of the hall hold something else.");
+            tickets.add((Ticket) o);
+        }
+        return tickets;
+    }
+    
+    /**
+     * Writes the hall with its seats as arrays, wherever they are stored, or without
+     * seats if it never had a sale
+     * @param out the output stream
+     * @throws IOException 
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        final SeatState S = seats;
+        long[] sold   = null;
+        long[] soldAt = null;
+        if (S != null) {
+            sold   = new long[S.words()];
+            soldAt = new long[layout.getCapacity()];
+            for (int w = 0; w < sold.length; w++)
+                sold[w] = S.getWord(w);
+            for (int i = 0; i < soldAt.length; i++)
+                soldAt[i] = getSoldMillis(i);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        final Prices P = prices;
+        fields.put("basePrice", Double.valueOf(P.current()));
+        fields.put("priceSince", P.since);
+        fields.put("priceBase", P.base);
+        fields.put("when", when);
+        fields.put("sold", sold);
+        fields.put("soldAt", soldAt);
+        fields.put("layout", layout);
+        out.writeFields();
     }
     
     /**
@@ -199,10 +845,78 @@ public class ConcertHall implements Serializable {
      * @param when the when
      */
     public ConcertHall(Double basePrice, LocalDateTime when) {
+        this(basePrice, when, VenueLayout.STANDARD);
+    }
+    
+    /**
+     * The constructor of the class
+     * @param basePrice the base price
+     * @param when the when
+     * @param layout the layout of the venue
+     */
+    public ConcertHall(Double basePrice, LocalDateTime when, VenueLayout layout) {
+        this(new Prices(basePrice), when, layout);
+    }
+    
+    /**
+     * The constructor of the class, for a hall with no sales yet
+     * @param prices the base prices over time, which may be shared with other halls
+     * @param when the when
+     * @param layout the layout of the venue
+     */
+    ConcertHall(Prices prices, LocalDateTime when, VenueLayout layout) {
+        this(prices, when, layout, null, -1);
+    }
+    
+    /**
+     * @return the state of the seats (for codecs and the SeatFile), or null if not built yet
+     */
+    SeatState seats() {
+        return seats;
+    }
+    
+    /**
+     * @return the slot of the seats in the SeatFile, or -1 if they have none
+     */
+    public int getSlot() {
+        return slot;
+    }
+    
+    /**
+     * @return true if the seats are stored in a mapped SeatFile
+     */
+    public boolean isMapped() {
+        return seats instanceof SeatState.Mapped;
+    }
+    
+    /**
+     * Moves the seats to a new storage, keeping their state unless told otherwise
+     * @param seats the new storage
+     * @param slot the slot in the SeatFile, or -1 for the heap
+     * @param copy true to copy the current state into the new storage
+     */
+    void moveSeats(SeatState seats, int slot, boolean copy) {
+        if (copy && this.seats == null) seats.clear();
+        else if (copy)                  seats.copyFrom(this.seats);
+        this.seats = seats;
+        this.slot  = slot;
+        if (!copy) this.counters = null;
+    }
+    
+    /**
+     * The constructor of the class, from the saved state of the seats
+     * @param prices the base prices over time
+     * @param when the when
+     * @param layout the layout of the venue
+     * @param seats the state of the seats, or null if the hall has no sales
+     * @param slot the slot in the SeatFile the seats belong to, or -1 if none
+     */
+    ConcertHall(Prices prices, LocalDateTime when, VenueLayout layout, SeatState seats, int slot) {
         this.when      = when;
-        this.tickets   = new ArrayList<>();
-        this.basePrice = basePrice;
-        initTickets();
+        this.prices    = prices;
+        this.layout    = layout;
+        this.seats     = seats;
+        this.slot      = slot;
     }
     
     /**
@@ -213,7 +927,8 @@ public class ConcertHall implements Serializable {
      */
     protected ConcertHall(Double basePrice, LocalDateTime when, ArrayList<Ticket> tickets) {
         this.when      = when;
-        this.tickets   = tickets;
-        this.basePrice = basePrice;
+        this.prices    = new Prices(basePrice);
+        this.layout    = VenueLayout.STANDARD;
+        loadTickets(tickets);
     }
 }
@@ -180,25 +180,37 @@ public class Performance implements Serializable {
     }
     
     /**
+     * Sets the dates; the dates added have no seats until their first sale and share
+     * the same base price
      * @param when the new when
      */
     public void setWhen(ArrayList<LocalDateTime> when) throws IndexOutOfBoundsException {
-        final Double PRICE = hall.get(0).getBasePrice();
+        final ConcertHall.Prices PRICE = new ConcertHall.Prices(hall.get(0).getBasePrice());
         final int MIN = (when.size() <= hall.size()) ? when.size() : hall.size();
         final int MAX = (when.size() >= hall.size()) ? when.size() : hall.size();
         for (int i = 0; i < MIN; i++)
             hall.get(i).setWhen(when.get(i));
         if (when.size() > hall.size())
             for (int i = MIN; i < MAX; i++)
-                hall.add(new ConcertHall(PRICE, when.get(i)));
+                hall.add(new ConcertHall(PRICE, when.get(i), hall.get(0).getLayout()));
     }
     
     /**
+     * Reprices all the dates from now on, keeping the tickets already sold
      * @param basePrice the new vase price
      */
     public void setBasePrice(Double basePrice) {
+        this.setBasePrice(basePrice, System.currentTimeMillis());
+    }
+    
+    /**
+     * Reprices all the dates, keeping the tickets already sold and the prices they were sold at
+     * @param basePrice the new base price
+     * @param millis when the price takes effect, in epoch milliseconds
+     */
+    public void setBasePrice(Double basePrice, long millis) {
         for (int i = 0; i < hall.size(); i++)
-            hall.get(i).setBasePrice(basePrice);
+            hall.get(i).setBasePrice(basePrice, millis);
     }
     
     /**
@@ -416,6 +428,17 @@ public class Performance implements Serializable {
         return sum;
     }
     
+    /**
+     * @return the total revenue of the tickets sold
+     */
+    public Double revenue() {
+        Double sum = 0.0;
+        for (ConcertHall h : this.hall) {
+            sum += h.getRevenue();
+        }
+        return sum;
+    }
+    
     /**
      * Constructor of the class
      */
@@ -494,11 +517,25 @@ public class Performance implements Serializable {
      * @param basePrice the base price
      */
     public Performance(String ID, String name, Double basePrice, ArrayList<LocalDateTime> when) {
+        this(ID, name, basePrice, when, VenueLayout.STANDARD);
+    }
+    
+    /**
+     * Constructor of the class. The dates have no seats until their first sale and share
+     * the same base price, so scheduling a long run is cheap.
+     * @param ID the ID to set - recommended to have been check with hasID previously if needed
+     * @param name the name to set
+     * @param when the when
+     * @param basePrice the base price
+     * @param layout the layout of the venue, shared by all the dates
+     */
+    public Performance(String ID, String name, Double basePrice, ArrayList<LocalDateTime> when, VenueLayout layout) {
+        final ConcertHall.Prices PRICE = new ConcertHall.Prices(basePrice);
         this.ID              = ID;
         this.name            = name;
-        this.hall            = new ArrayList<>();
+        this.hall            = new ArrayList<>(when.size());
         for (int i = 0; i < when.size(); i++)
-            this.hall.add(new ConcertHall(basePrice, when.get(i)));
+            this.hall.add(new ConcertHall(PRICE, when.get(i), layout));
         this.sortWhen();
         this.singers         = new ArrayList<>();
         this.dancers         = new ArrayList<>();
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.components;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Memory mapped file holding the seats of the halls, one fixed size slot per hall.
+ * The halls only keep the number of their slot, so loading the performances does
+ * not read the seats: the pages of a slot are read by the OS when first used.
+ * The file is a small header followed by the slots, mapped in chunks so it can grow.
+ * @author Ovelhas do Presépio
+ */
+public class SeatFile {
+    private static final int MAGIC           = 0x50565354;  // "PVST"
+    private static final int VERSION         = 1;
+    private static final int HEADER          = 64;
+    private static final int SLOTS_PER_CHUNK = 256;
+    
+    private String fname;
+    private FileChannel channel;
+    private int capacity;                                   // seats per slot, 0 if not set yet
+    private int slotBytes;
+    private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+    private final BitSet used = new BitSet();
+    
+    /**
+     * @return the file name
+     */
+    public String getFileName() {
+        return fname;
+    }
+    
+    /**
+     * @param fname the file name
+     */
+    public void setFileName(String fname) {
+        this.fname = fname;
+    }
+    
+    /**
+     * @return true if the file exists
+     */
+    public boolean exists() {
+        return !fname.isEmpty() && new File(fname).exists();
+    }
+    
+    /**
+     * @return true if the file is open
+     */
+    public synchronized boolean isOpen() {
+        return channel != null;
+    }
+    
+    /**
+     * Opens the file, creating it if needed
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (channel != null) return;
+        channel = FileChannel.open(new File(fname).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        used.clear();
+        chunks.clear();
+        capacity = 0;
+        if (channel.size() < HEADER) return;
+        ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() > VERSION) {
+            close();
+            throw new StreamCorruptedException(String.format("%s is not a seat file.", fname));
+        }
+        capacity  = header.getInt();
+        slotBytes = header.getInt();
+    }
+    
+    /**
+     * Binds a hall to the slot it was saved with, without allocating any slot
+     * @param h the hall
+     * @return true if the seats of the hall are now mapped
+     * @throws IOException
+     */
+    public synchronized boolean bind(ConcertHall h) throws IOException {
+        if (h.isMapped()) {
+            used.set(h.getSlot());
+            return true;
+        }
+        if (h.getSlot() < 0) return false;
+        if (h.getCapacity() != capacity)
+            throw new StreamCorruptedException(String.format("Slot %d of %s is not a hall with %d seats.", h.getSlot(), fname, h.getCapacity()));
+        h.moveSeats(slot(h.getSlot()), h.getSlot(), false);
+        used.set(h.getSlot());
+        return true;
+    }
+    
+    /**
+     * Moves the seats of a hall into a slot of the file, allocating it if needed
+     * @param h the hall
+     * @return true if the seats of the hall are now mapped
+     * @throws IOException
+     */
+    public synchronized boolean attach(ConcertHall h) throws IOException {
+        if (h.getSlot() >= 0) return bind(h);
+        if (capacity == 0) writeHeader(h.getCapacity());
+        if (h.getCapacity() != capacity) return false;
+        final int SLOT = used.nextClearBit(0);
+        h.moveSeats(slot(SLOT), SLOT, true);
+        used.set(SLOT);
+        return true;
+    }
+    
+    /**
+     * Moves the seats of a hall back to the heap, freeing its slot
+     * @param h the hall
+     */
+    public synchronized void detach(ConcertHall h) {
+        if (h.getSlot() < 0) return;
+        SeatState heap = new SeatState.Heap(h.getCapacity());
+        if (h.isMapped()) {
+            heap.copyFrom(h.seats());
+            used.clear(h.getSlot());
+        }
+        h.moveSeats(heap, -1, false);
+    }
+    
+    /**
+     * Writes the changed pages of the file to the disk
+     * @throws IOException
+     */
+    public synchronized void force() throws IOException {
+        for (MappedByteBuffer chunk : chunks)
+            chunk.force();
+    }
+    
+    /**
+     * Writes the changed pages and closes the file; mapped halls remain usable
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        try {
+            force();
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+    
+    /**
+     * @param slot the number of the slot
+     * @return the seat state mapped to the slot
+     * @throws IOException
+     */
+    private SeatState slot(int slot) throws IOException {
+        final int CHUNK = slot / SLOTS_PER_CHUNK;
+        while (chunks.size() <= CHUNK) {
+            final long POSITION = HEADER + (long) chunks.size() * SLOTS_PER_CHUNK * slotBytes;
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, POSITION, (long) SLOTS_PER_CHUNK * slotBytes));
+        }
+        return new SeatState.Mapped(capacity, chunks.get(CHUNK), (slot % SLOTS_PER_CHUNK) * slotBytes);
+    }
+    
+    /**
+     * @param capacity the seats per slot
+     * @throws IOException
+     */
+    private void writeHeader(int capacity) throws IOException {
+        this.capacity  = capacity;
+        this.slotBytes = SeatState.Mapped.slotBytes(capacity);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(this.capacity).putInt(this.slotBytes);
+        header.rewind();
+        channel.write(header, 0);
+        channel.force(true);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.components;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Storage of the seats of a hall: a sold bitset (one bit per seat, in words of
+ * 64 seats) and the sale time of each seat, in epoch milliseconds.
+ * The state either lives in the heap or in a slot of a mapped SeatFile.
+ * Seats are claimed and released with compare-and-set on the words of the bitset,
+ * so concurrent sales of a hall never sell the same seat twice.
+ * @author Ovelhas do Presépio
+ */
+abstract class SeatState {
+    protected final int CAPACITY;
+    
+    /**
+     * @param w the index of the word
+     * @return the word of the sold bitset
+     */
+    abstract long getWord(int w);
+    
+    /**
+     * @param w the index of the word
+     * @param value the new word of the sold bitset
+     */
+    abstract void setWord(int w, long value);
+    
+    /**
+     * @param w the index of the word
+     * @param expect the expected word of the sold bitset
+     * @param update the new word of the sold bitset
+     * @return true if the word was the expected one and has been updated
+     */
+    abstract boolean compareAndSetWord(int w, long expect, long update);
+    
+    /**
+     * Tries before giving up on the sale time of a sold seat that has none yet
+     */
+    private static final int STAMP_TRIES = 1024;
+    
+    /**
+     * @param index the index of the seat
+     * @return when the seat was last sold, in epoch milliseconds (only meaningful while sold)
+     */
+    abstract long getStamp(int index);
+    
+    /**
+     * @param index the index of the seat
+     * @param millis when the seat was sold, in epoch milliseconds
+     */
+    abstract void setStamp(int index, long millis);
+    
+    /**
+     * Marks a seat as sold if it is available
+     * @param index the index of the seat
+     * @return true if the seat was available and is now sold
+     */
+    boolean claim(int index) {
+        final int  W   = index >>> 6;
+        final long BIT = 1L << index;
+        long word;
+        do {
+            word = getWord(W);
+            if ((word & BIT) != 0) return false;
+        } while (!compareAndSetWord(W, word, word | BIT));
+        return true;
+    }
+    
+    /**
+     * Marks a seat as available if it is sold
+     * @param index the index of the seat
+     * @return true if the seat was sold and is now available
+     */
+    boolean release(int index) {
+        final int  W   = index >>> 6;
+        final long BIT = 1L << index;
+        long word;
+        do {
+            word = getWord(W);
+            if ((word & BIT) == 0) return false;
+            setStamp(index, 0L);
+        } while (!compareAndSetWord(W, word, word & ~BIT));
+        return true;
+    }
+    
+    /**
+     * Reads the sale time of a sold seat.
+     * A sale claims the seat before it writes the time, and a refund clears the time
+     * before it releases the seat, so a sold seat without a time is being sold or
+     * refunded right now: waits for either to finish, and only then takes the time as
+     * unknown (seats restored from files without sale times).
+     * @param index the index of the seat
+     * @return when the seat was sold, in epoch milliseconds; 0 if it is not sold or its
+     * sale time is unknown
+     */
+    long soldStamp(int index) {
+        final int  W   = index >>> 6;
+        final long BIT = 1L << index;
+        for (int tries = 0; ; tries++) {
+            if ((getWord(W) & BIT) == 0) return 0L;
+            final long STAMP = getStamp(index);
+            if (STAMP != 0L || tries == STAMP_TRIES) return STAMP;
+            if (tries < 64) Thread.onSpinWait();
+            else Thread.yield();
+        }
+    }
+    
+    /**
+     * @return the number of words of the sold bitset
+     */
+    int words() {
+        return (CAPACITY + 63) >>> 6;
+    }
+    
+    /**
+     * @return the number of seats
+     */
+    int capacity() {
+        return CAPACITY;
+    }
+    
+    /**
+     * Marks every seat as available
+     */
+    void clear() {
+        for (int w = 0; w < words(); w++)
+            setWord(w, 0L);
+        for (int i = 0; i < CAPACITY; i++)
+            setStamp(i, 0L);
+    }
+    
+    /**
+     * @param other the state to copy from, with the same capacity
+     */
+    void copyFrom(SeatState other) {
+        for (int w = 0; w < words(); w++)
+            setWord(w, other.getWord(w));
+        for (int i = 0; i < CAPACITY; i++)
+            setStamp(i, other.getStamp(i));
+    }
+    
+    /**
+     * @param capacity the number of seats
+     */
+    protected SeatState(int capacity) {
+        this.CAPACITY = capacity;
+    }
+    
+    /**
+     * Seat state kept in arrays on the heap
+     */
+    static class Heap extends SeatState {
+        private final AtomicLongArray sold;
+        private final AtomicLongArray soldAt;
+        
+        @Override
+        long getWord(int w) {
+            return sold.get(w);
+        }
+        
+        @Override
+        void setWord(int w, long value) {
+            sold.set(w, value);
+        }
+        
+        @Override
+        boolean compareAndSetWord(int w, long expect, long update) {
+            return sold.compareAndSet(w, expect, update);
+        }
+        
+        @Override
+        long getStamp(int index) {
+            return soldAt.get(index);
+        }
+        
+        @Override
+        void setStamp(int index, long millis) {
+            soldAt.set(index, millis);
+        }
+        
+        /**
+         * @param capacity the number of seats, all available
+         */
+        Heap(int capacity) {
+            super(capacity);
+            this.sold   = new AtomicLongArray(words());
+            this.soldAt = new AtomicLongArray(capacity);
+        }
+        
+        /**
+         * @param sold the sold bitset
+         * @param soldAt the sale times, in epoch milliseconds
+         */
+        Heap(long[] sold, long[] soldAt) {
+            super(soldAt.length);
+            this.sold   = new AtomicLongArray(sold);
+            this.soldAt = new AtomicLongArray(soldAt);
+        }
+    }
+    
+    /**
+     * Seat state kept in a slot of a mapped file: the words of the sold bitset
+     * followed by the sale time of each seat, all big endian and aligned to 8 bytes
+     */
+    static class Mapped extends SeatState {
+        private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+        
+        private final ByteBuffer buffer;
+        private final int OFFSET;
+        
+        @Override
+        long getWord(int w) {
+            return (long) LONGS.getVolatile(buffer, OFFSET + (w << 3));
+        }
+        
+        @Override
+        void setWord(int w, long value) {
+            LONGS.setVolatile(buffer, OFFSET + (w << 3), value);
+        }
+        
+        @Override
+        boolean compareAndSetWord(int w, long expect, long update) {
+            return LONGS.compareAndSet(buffer, OFFSET + (w << 3), expect, update);
+        }
+        
+        @Override
+        long getStamp(int index) {
+            return (long) LONGS.getVolatile(buffer, OFFSET + ((words() + index) << 3));
+        }
+        
+        @Override
+        void setStamp(int index, long millis) {
+            LONGS.setVolatile(buffer, OFFSET + ((words() + index) << 3), millis);
+        }
+        
+        /**
+         * @param capacity the number of seats
+         * @return the size of a slot, in bytes
+         */
+        static int slotBytes(int capacity) {
+            return (((capacity + 63) >>> 6) + capacity) << 3;
+        }
+        
+        /**
+         * @param capacity the number of seats
+         * @param buffer the mapped buffer
+         * @param offset the offset of the slot in the buffer
+         */
+        Mapped(int capacity, ByteBuffer buffer, int offset) {
+            super(capacity);
+            this.buffer = buffer;
+            this.OFFSET = offset;
+        }
+    }
+}
@@ -18,33 +18,67 @@ package org.pavarotti.core.components;
 
 import java.util.*;
 import java.io.*;
+import java.text.Normalizer;
 
 import org.pavarotti.core.intf.*;
+import org.dma.io.Codec;
 import org.dma.io.Streamer;
 
 /**
+ * The list of members is copy-on-write: every change publishes a new list, so
+ * a list returned by getList, or being saved in the background, never changes.
+ * Names are searched ignoring case and accents through an index of the trigrams of the
+ * names, which every change to the list keeps up to date in place; searches therefore
+ * hold the lock of the staff, unlike the other reads.
+ * The list is kept sorted by ID, each new member being inserted at its place, and the
+ * position of each ID is kept in a hash table, so finding a member by ID takes constant
+ * time and the last member has the greatest ID.
  * @param <T> a class that extends Person and implements StaffMember
  * @author Ovelhas do Presépio
  */
 public class Staff<T extends Person & StaffMember> {
     private final Streamer<T> streamer;
-    private ArrayList<T>      list;
+    private volatile ArrayList<T> list;
+    private final NameIndex names = new NameIndex();    // of the names of the list
+    private final IdIndex   ids   = new IdIndex();      // the position of each ID in the list
+    
+    private static final Comparator<StaffMember> BY_ID = Comparator.comparingInt(StaffMember::getID);
     
     /**
-     * @param member the new member to add
+     * @param member the new member to add, after the members with a lower or equal ID
      * @return the instance itself
      */
-    public Staff insert(T member) {
-        this.list.add(member);
+    public synchronized Staff insert(T member) {
+        final int AT = this.place(member.getID());
+        ArrayList<T> copy = new ArrayList<>(this.list.size() + 1);
+        copy.addAll(this.list);
+        copy.add(AT, member);
+        this.list = copy;
+        this.names.insert(AT, member.getName());
+        this.reindex(AT);
         return this;
     }
     
     /**
-     * @param list the list of new members to add
+     * @param list the list of new members to add, appended if their IDs are in order
+     * and greater than the ones already in the list, merged and sorted otherwise
      * @return the instance itself
      */
-    public Staff insertAll(ArrayList<T> list) {
-        this.list.addAll(list);
+    public synchronized Staff insertAll(ArrayList<T> list) {
+        final int SIZE = this.list.size();
+        ArrayList<T> copy = new ArrayList<>(SIZE + list.size());
+        copy.addAll(this.list);
+        copy.addAll(list);
+        if (!isSorted(copy, SIZE)) {
+            copy.sort(BY_ID);
+            this.list = copy;
+            this.rebuild();
+            return this;
+        }
+        this.list = copy;
+        for (T member : list)
+            this.names.add(member.getName());
+        this.reindex(SIZE);
         return this;
     }
     
@@ -52,16 +86,24 @@ public class Staff<T extends Person & StaffMember> {
      * @param index the index of the element to delete
      * @return the instance itself
      */
-    public Staff delete(int index) throws IndexOutOfBoundsException {
-        this.list.remove(index);
+    public synchronized Staff delete(int index) throws IndexOutOfBoundsException {
+        final int ID = this.list.get(index).getID();
+        ArrayList<T> copy = new ArrayList<>(this.list);
+        copy.remove(index);
+        this.list = copy;
+        this.names.remove(index);
+        if (this.ids.get(ID) == index)
+            this.ids.remove(ID);
+        this.reindex(index);
         return this;
     }
     
     /**
      * Clears the list
      */
-    public void clear() {
-        this.list.clear();
+    public synchronized void clear() {
+        this.list = new ArrayList<>();
+        this.rebuild();
     }
     
     /**
@@ -74,23 +116,83 @@ public class Staff<T extends Person & StaffMember> {
     
     /**
      * @param index the index of the element to modify
-     * @param member the instance with the new data
+     * @param member the instance with the new data; if its ID is another one, it is moved
+     * to keep the list sorted
      * @return the instance itself
      */
-    public Staff modify(int index, T member) throws IndexOutOfBoundsException {
-        this.list.set(index, member);
+    public synchronized Staff modify(int index, T member) throws IndexOutOfBoundsException {
+        if (this.list.get(index).getID() != member.getID()) {
+            this.delete(index);
+            return this.insert(member);
+        }
+        ArrayList<T> copy = new ArrayList<>(this.list);
+        copy.set(index, member);
+        this.list = copy;
+        this.names.set(index, member.getName());
         return this;
     }
     
     /**
-     * @return the list of StaffMember instances in the form of an ArrayList
+     * @param ID the ID of a new member
+     * @return the index to insert it at, after the members with a lower or equal ID
+     */
+    private int place(int ID) {
+        final ArrayList<T> LIST = this.list;
+        int lo = 0;
+        int hi = LIST.size();
+        while (lo < hi) {
+            final int MID = (lo + hi) >>> 1;
+            if (LIST.get(MID).getID() <= ID) lo = MID + 1;
+            else                             hi = MID;
+        }
+        return lo;
+    }
+    
+    /**
+     * Updates the positions of the IDs from an index on, after members were inserted or
+     * removed there; an ID found more than once keeps its first position
+     * @param from the first index whose member may have moved
+     */
+    private void reindex(int from) {
+        final ArrayList<T> LIST = this.list;
+        for (int i = LIST.size() - 1; i >= from; i--) {
+            final int ID = LIST.get(i).getID();
+            final int AT = this.ids.get(ID);
+            if (AT < 0 || AT >= from)
+                this.ids.put(ID, i);
+        }
+    }
+    
+    /**
+     * Builds the indexes of the names and IDs from the list again
+     */
+    private void rebuild() {
+        this.names.rebuild(this.list);
+        this.ids.clear();
+        this.reindex(0);
+    }
+    
+    /**
+     * @param list the list of members
+     * @param from the index from which to check
+     * @return true if the IDs of the list are in ascending order from the index on
+     */
+    private static boolean isSorted(ArrayList<? extends StaffMember> list, int from) {
+        for (int i = Math.max(from, 1); i < list.size(); i++)
+            if (list.get(i - 1).getID() > list.get(i).getID())
+                return false;
+        return true;
+    }
+    
+    /**
+     * @return the list of StaffMember instances in the form of an ArrayList, which must not be changed
      */
     public ArrayList<T> getList() {
         return this.list;
     }
     
     /**
-     * @param name the name to search for
+     * @param name the name to search for, ignoring case and accents
      * @return the index of the first instance with the name, if any
      */
     public int search(String name) {
@@ -98,59 +200,420 @@ public class Staff<T extends Person & StaffMember> {
     }
     
     /**
-     * @param name the name to search for
+     * @param name the name to search for, ignoring case and accents
      * @param index the index to start from
      * @return the index of the first instance with the name, if any
      */
-    public int searchFromIndex(String name, int index) {
-        final String NAME = name.toUpperCase();
-        for (int i = index; i < this.list.size(); i++) {
-            if (this.list.get(i).getName().toUpperCase().contains(NAME))
-                return i;
-        }
-        return -1;
+    public synchronized int searchFromIndex(String name, int index) {
+        return this.names.next(NameIndex.fold(name), index);
     }
     
     /**
-     * @param name the name to search for
+     * @param name the name to search for, ignoring case and accents
      * @return the list of all staff members who match the name at some extent
      */
-    public ArrayList<T> getAllByName(String name) {
+    public synchronized ArrayList<T> getAllByName(String name) {
+        return this.getAll(NameIndex.fold(name));
+    }
+    
+    /**
+     * @param prefix the start of a word of the name, ignoring case and accents
+     * @return the list of all staff members with a word of the name that starts with the prefix
+     */
+    public synchronized ArrayList<T> getAllByPrefix(String prefix) {
+        return this.getAll(" " + NameIndex.fold(prefix));
+    }
+    
+    /**
+     * @param text the text to search for, already folded
+     * @return the members whose name has the text, in the order of the list
+     */
+    private ArrayList<T> getAll(String text) {
+        final ArrayList<T> LIST = this.list;
         ArrayList<T> result = new ArrayList<>();
-        int index = 0;
-        while (index != -1) {
-            index = searchFromIndex(name, index);
-            if (index != -1) {
-                result.add(peek(index));
-                index++;
+        for (int i = this.names.next(text, 0); i != -1; i = this.names.next(text, i + 1))
+            result.add(LIST.get(i));
+        return result;
+    }
+    
+    /**
+     * The names of a list of members, folded to lower case without accents and with
+     * single spaces, each preceded by a space so that the start of every word is marked.
+     * Each trigram of the names has the indexes of the members whose name has it, in
+     * ascending order, in an open addressing table; a search takes the rarest trigram
+     * of what is searched for and checks only the names that have it.
+     */
+    private static final class NameIndex {
+        private final ArrayList<String> names = new ArrayList<>();
+        private long[]     keys  = new long[64];
+        private Postings[] table = new Postings[64];
+        private int        used;
+        
+        /**
+         * @param name the name of the member added at the end of the list
+         */
+        void add(String name) {
+            final String NAME = " " + fold(name);
+            final int ID = names.size();
+            names.add(NAME);
+            for (int j = 0; j + 3 <= NAME.length(); j++)
+                postings(trigram(NAME, j), true).add(ID);
+        }
+        
+        /**
+         * @param id the index of the member inserted, the ones from it moving forward
+         * @param name the name of the member
+         */
+        void insert(int id, String name) {
+            if (id == names.size()) {
+                add(name);
+                return;
             }
+            final String NAME = " " + fold(name);
+            names.add(id, NAME);
+            for (Postings p : table)
+                if (p != null)
+                    p.shift(id);
+            for (int j = 0; j + 3 <= NAME.length(); j++)
+                postings(trigram(NAME, j), true).insert(id);
+        }
+        
+        /**
+         * @param id the index of the member changed
+         * @param name the new name of the member
+         */
+        void set(int id, String name) {
+            final String OLD  = names.get(id);
+            final String NAME = " " + fold(name);
+            names.set(id, NAME);
+            for (int j = 0; j + 3 <= OLD.length(); j++)
+                postings(trigram(OLD, j), false).remove(id, false);
+            for (int j = 0; j + 3 <= NAME.length(); j++)
+                postings(trigram(NAME, j), true).insert(id);
+        }
+        
+        /**
+         * @param id the index of the member removed, the ones after it moving back
+         */
+        void remove(int id) {
+            names.remove(id);
+            for (Postings p : table)
+                if (p != null)
+                    p.remove(id, true);
+        }
+        
+        /**
+         * @param list the members to index instead
+         */
+        void rebuild(List<? extends Person> list) {
+            names.clear();
+            names.ensureCapacity(list.size());
+            keys  = new long[64];
+            table = new Postings[64];
+            used  = 0;
+            for (Person member : list)
+                add(member.getName());
+        }
+        
+        /**
+         * @param text the text to search for, already folded
+         * @param from the index to start from
+         * @return the index of the first member from the given one whose name has the text, or -1
+         */
+        int next(String text, int from) {
+            final Postings P = candidates(text);
+            if (P == null) {
+                for (int i = Math.max(from, 0); i < names.size(); i++)
+                    if (names.get(i).contains(text))
+                        return i;
+                return -1;
+            }
+            int k = Arrays.binarySearch(P.ids, 0, P.size, from);
+            for (k = (k < 0) ? -k - 1 : k; k < P.size; k++)
+                if (names.get(P.ids[k]).contains(text))
+                    return P.ids[k];
+            return -1;
+        }
+        
+        /**
+         * @param text the text to search for, already folded
+         * @return the members with the rarest trigram of the text, none if a trigram is
+         * in no name, or null if the text is too short to have trigrams
+         */
+        private Postings candidates(String text) {
+            if (text.length() < 3) return null;
+            Postings rarest = null;
+            for (int j = 0; j + 3 <= text.length(); j++) {
+                final Postings P = postings(trigram(text, j), false);
+                if (P == null) return Postings.NONE;
+                if (rarest == null || P.size < rarest.size)
+                    rarest = P;
+            }
+            return rarest;
+        }
+        
+        /**
+         * @param key the trigram
+         * @param create true to add the trigram if it is not in the table
+         * @return the members with the trigram, or null if none and not created
+         */
+        private Postings postings(long key, boolean create) {
+            int i = slot(key, keys.length);
+            while (table[i] != null) {
+                if (keys[i] == key) return table[i];
+                i = (i + 1) & (keys.length - 1);
+            }
+            if (!create) return null;
+            if (2 * (used + 1) > keys.length) {
+                grow();
+                return postings(key, true);
+            }
+            keys[i]  = key;
+            table[i] = new Postings();
+            used++;
+            return table[i];
+        }
+        
+        /**
+         * Doubles the size of the table
+         */
+        private void grow() {
+            final long[]     KEYS  = keys;
+            final Postings[] TABLE = table;
+            keys  = new long[KEYS.length << 1];
+            table = new Postings[KEYS.length << 1];
+            for (int j = 0; j < KEYS.length; j++) {
+                if (TABLE[j] == null) continue;
+                int i = slot(KEYS[j], keys.length);
+                while (table[i] != null)
+                    i = (i + 1) & (keys.length - 1);
+                keys[i]  = KEYS[j];
+                table[i] = TABLE[j];
+            }
+        }
+        
+        /**
+         * @param s the text
+         * @param i the index of the first character
+         * @return the trigram of the text at the index
+         */
+        private static long trigram(String s, int i) {
+            return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        }
+        
+        /**
+         * Folds a name to lower case, without accents and with single spaces (e.g.
+         * " Zé  Tó " is "ze to")
+         * @param name the name
+         * @return the folded name
+         */
+        static String fold(String name) {
+            boolean ascii = true;
+            for (int i = 0; i < name.length() && ascii; i++)
+                ascii = name.charAt(i) < 0x80;
+            final String D = ascii ? name : Normalizer.normalize(name, Normalizer.Form.NFD);
+            StringBuilder sb = new StringBuilder(D.length());
+            boolean space = true;
+            for (int i = 0; i < D.length(); i++) {
+                final char C = D.charAt(i);
+                if (!ascii && Character.getType(C) == Character.NON_SPACING_MARK)
+                    continue;
+                if (Character.isWhitespace(C)) {
+                    space = true;
+                    continue;
+                }
+                if (space && sb.length() > 0)
+                    sb.append(' ');
+                sb.append(Character.toLowerCase(C));
+                space = false;
+            }
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * The ascending indexes of the members with a trigram
+     */
+    private static final class Postings {
+        static final Postings NONE = new Postings();
+        
+        int[] ids = new int[2];
+        int size;
+        
+        /**
+         * @param id the index of a member, not less than the last one added
+         */
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) return;
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+        
+        /**
+         * @param id the index of a member, anywhere
+         */
+        void insert(int id) {
+            int k = Arrays.binarySearch(ids, 0, size, id);
+            if (k >= 0) return;
+            k = -k - 1;
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, k, ids, k + 1, size - k);
+            ids[k] = id;
+            size++;
+        }
+        
+        /**
+         * @param id the index of a member inserted: the indexes from it move forward by one
+         */
+        void shift(int id) {
+            int k = Arrays.binarySearch(ids, 0, size, id);
+            for (k = (k < 0) ? -k - 1 : k; k < size; k++)
+                ids[k]++;
+        }
+        
+        /**
+         * @param id the index of a member
+         * @param shift true to move the indexes after it back by one
+         */
+        void remove(int id, boolean shift) {
+            int k = Arrays.binarySearch(ids, 0, size, id);
+            if (k >= 0) {
+                System.arraycopy(ids, k + 1, ids, k, size - k - 1);
+                size--;
+            } else {
+                k = -k - 1;
+            }
+            if (shift)
+                for (int j = k; j < size; j++)
+                    ids[j]--;
         }
-        return result;
+    }
+    
+    /**
+     * The position of each ID in the list, in an open addressing table of int keys
+     */
+    private static final class IdIndex {
+        private int[] keys      = new int[16];
+        private int[] positions = new int[16];  // the position plus one, 0 if the slot is empty
+        private int   used;
+        
+        /**
+         * @param id the ID
+         * @return the position of the ID, or -1 if none
+         */
+        int get(int id) {
+            final int MASK = keys.length - 1;
+            for (int i = slot(id, keys.length); positions[i] != 0; i = (i + 1) & MASK)
+                if (keys[i] == id)
+                    return positions[i] - 1;
+            return -1;
+        }
+        
+        /**
+         * @param id the ID
+         * @param position the position of the ID
+         */
+        void put(int id, int position) {
+            final int MASK = keys.length - 1;
+            int i = slot(id, keys.length);
+            for (; positions[i] != 0; i = (i + 1) & MASK) {
+                if (keys[i] == id) {
+                    positions[i] = position + 1;
+                    return;
+                }
+            }
+            if (2 * (used + 1) > keys.length) {
+                grow();
+                put(id, position);
+                return;
+            }
+            keys[i]      = id;
+            positions[i] = position + 1;
+            used++;
+        }
+        
+        /**
+         * Removes an ID, moving back the IDs after it in its run that could no longer be found
+         * @param id the ID
+         */
+        void remove(int id) {
+            final int MASK = keys.length - 1;
+            int i = slot(id, keys.length);
+            while (positions[i] != 0 && keys[i] != id)
+                i = (i + 1) & MASK;
+            if (positions[i] == 0) return;
+            for (int j = (i + 1) & MASK; positions[j] != 0; j = (j + 1) & MASK) {
+                final int HOME = slot(keys[j], keys.length);
+                if (((j - HOME) & MASK) >= ((j - i) & MASK)) {
+                    keys[i]      = keys[j];
+                    positions[i] = positions[j];
+                    i = j;
+                }
+            }
+            positions[i] = 0;
+            used--;
+        }
+        
+        /**
+         * Removes every ID
+         */
+        void clear() {
+            keys      = new int[16];
+            positions = new int[16];
+            used      = 0;
+        }
+        
+        /**
+         * Doubles the size of the table
+         */
+        private void grow() {
+            final int[] KEYS      = keys;
+            final int[] POSITIONS = positions;
+            keys      = new int[KEYS.length << 1];
+            positions = new int[KEYS.length << 1];
+            for (int j = 0; j < KEYS.length; j++) {
+                if (POSITIONS[j] == 0) continue;
+                int i = slot(KEYS[j], keys.length);
+                while (positions[i] != 0)
+                    i = (i + 1) & (keys.length - 1);
+                keys[i]      = KEYS[j];
+                positions[i] = POSITIONS[j];
+            }
+        }
+    }
+    
+    /**
+     * @param key the key
+     * @param length the length of the table, a power of two
+     * @return the first slot to probe for the key
+     */
+    private static int slot(long key, int length) {
+        final long H = key * 0x9E3779B97F4A7C15L;
+        return (int) (H >>> 40) & (length - 1);
     }
     
     /**
      * @param ID the ID to search for
      * @return the index of the instance with the ID, if any
      */
-    public int search(int ID) {
-        for (int i = 0; i < this.list.size(); i++) {
-            if (this.list.get(i).getID() == ID)
-                return i;
-        }
-        return -1;
+    public synchronized int search(int ID) {
+        return this.ids.get(ID);
     }
     
     /**
+     * The list is always sorted by ID, so only members whose ID was changed in place
+     * are moved
      * @return the instance itself with the instances sorted by ID
      */
-    public Staff sortByID() {
-        this.list.sort(
-                (StaffMember m1, StaffMember m2) -> {
-                    int a = m1.getID();
-                    int b = m2.getID();
-                    return (a > b) ? 1 : (a < b) ? -1 : 0;
-                }
-        );
+    public synchronized Staff sortByID() {
+        if (isSorted(this.list, 1))
+            return this;
+        ArrayList<T> copy = new ArrayList<>(this.list);
+        copy.sort(BY_ID);
+        this.list = copy;
+        this.rebuild();
         return this;
     }
     
@@ -168,6 +631,13 @@ public class Staff<T extends Person & StaffMember> {
         this.streamer.setFileName(fname);
     }
     
+    /**
+     * @param codec the codec to save with, or null to use Java serialization
+     */
+    public void setCodec(Codec<T> codec) {
+        this.streamer.setCodec(codec);
+    }
+    
     /**
      * @return true if the file could be created, false otherwise
      * @throws IOException
@@ -188,8 +658,14 @@ public class Staff<T extends Person & StaffMember> {
      * @return true if load successful, false if exception thrown
      * @throws IOException 
      */
-    public boolean loadFromFile() throws IOException {
-        return (this.list = this.streamer.loadAllFromFile()) != null;
+    public synchronized boolean loadFromFile() throws IOException {
+        ArrayList<T> loaded = this.streamer.loadAllFromFile();
+        if (loaded != null && !isSorted(loaded, 1))
+            loaded.sort(BY_ID);
+        if ((this.list = loaded) == null)
+            return false;
+        this.rebuild();
+        return true;
     }
     
     /**
@@ -200,8 +676,9 @@ public class Staff<T extends Person & StaffMember> {
     public String asString(String fmt) throws IllegalFormatException {
         String s = "";
         StaffMember m;
-        for (int i = 0; i < this.list.size(); i++) {
-            m = this.list.get(i);
+        final ArrayList<T> LIST = this.list;
+        for (int i = 0; i < LIST.size(); i++) {
+            m = LIST.get(i);
             s += String.format(fmt, m.getID(), m.getName(), m.getPosition());
         }
         return s;
@@ -22,7 +22,9 @@ import java.io.Serializable;
 import org.pavarotti.core.throwable.*;
 
 /**
- *
+ * A ticket of a given seat.
+ * Tickets taken from a ConcertHall are views of that hall: selling or refunding
+ * them changes the state of the seat in the hall.
  * @author Ovelhas do Presépio
  */
 public class Ticket implements Serializable {
@@ -33,6 +35,9 @@ public class Ticket implements Serializable {
     private boolean sold;
     private LocalDateTime when;
     
+    private transient ConcertHall hall;
+    private transient int index;
+    
     /**
      * @return the price
      */
@@ -71,7 +76,13 @@ public class Ticket implements Serializable {
     /**
      * @throws TicketSoldException 
      */
-    public void sell() throws TicketSoldException {
+    public synchronized void sell() throws TicketSoldException {
+        if (hall != null) {
+            hall.sell(index);
+            this.sold = true;
+            this.when = hall.whenSoldOrNull(index);
+            return;
+        }
         if (sold) throw new TicketSoldException(
                 String.format(
                         "Already sold on the %s.",
@@ -85,7 +96,13 @@ public class Ticket implements Serializable {
     /**
      * @throws TicketNotSoldException 
      */
-    public void refund() throws TicketNotSoldException {
+    public synchronized void refund() throws TicketNotSoldException {
+        if (hall != null) {
+            hall.refund(index);
+            this.sold = false;
+            this.when = null;
+            return;
+        }
         if (!sold) throw new TicketNotSoldException("Not sold yet.");
         switchSold();
         when = null;
@@ -119,6 +136,20 @@ public class Ticket implements Serializable {
         this.when  = null;
     }
     
+    /**
+     * The constructor of the class, for a view of a seat of a hall
+     * @param hall the hall
+     * @param index the index of the seat
+     */
+    Ticket(ConcertHall hall, int index) {
+        this.price = hall.priceOf(index);
+        this.seat  = hall.getSeat(index);
+        this.sold  = hall.isSold(index);
+        this.when  = hall.whenSoldOrNull(index);
+        this.hall  = hall;
+        this.index = index;
+    }
+    
     /**
      * The constructor of the class
      * @param price the initial price to set
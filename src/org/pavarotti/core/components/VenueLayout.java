@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.components;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pavarotti.core.throwable.SeatNotFoundException;
+
+/**
+ * The geometry and prices of a venue: its rows, the seats of each row, the price
+ * multiplier of each row over the base price and the labels of its seats.
+ * Layouts are immutable and interned, so every hall of every performance at a
+ * venue shares one instance and the labels of its seats exist once in memory.
+ * Rows are labelled A to Z, then AA to ZZ, and the seats of a row from 00 (e.g. "B05").
+ * @author Ovelhas do Presépio
+ */
+public final class VenueLayout implements Serializable {
+    private static final long serialVersionUID = 2519308441872416367L;
+    private static final ConcurrentHashMap<VenueLayout, VenueLayout> LAYOUTS = new ConcurrentHashMap<>();
+    
+    public static final int MAX_ROWS = 26 * 27;     // up to ZZ
+    public static final int MAX_COLS = 64;          // a row fits in a word of the sold bitset
+    
+    /**
+     * The layout of the original hall: 10 rows of 20 seats, from A00 to J19, the front
+     * row at 130% of the base price and the back row at 85%
+     */
+    public static final VenueLayout STANDARD = VenueLayout.of(10, 20);
+    
+    private final int rows;
+    private final int cols;
+    private final double[] multipliers;             // price over the base price, per row
+    private final transient boolean standardPrices;
+    private transient volatile String[] labels;     // per seat, built on first use
+    
+    /**
+     * @return the number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+    
+    /**
+     * @return the number of seats of each row
+     */
+    public int getCols() {
+        return cols;
+    }
+    
+    /**
+     * @return the number of seats
+     */
+    public int getCapacity() {
+        return rows * cols;
+    }
+    
+    /**
+     * @param row the row
+     * @return the price of the seats of the row over the base price
+     */
+    public double getMultiplier(int row) {
+        return multipliers[row];
+    }
+    
+    /**
+     * @return true if the prices are those of the standard layout for this number of rows
+     */
+    public boolean hasStandardPrices() {
+        return standardPrices;
+    }
+    
+    /**
+     * @param index the index of the seat
+     * @return the label of the seat (e.g. 25 is "B05" with 20 seats per row)
+     */
+    public String label(int index) {
+        String[] l = labels;
+        if (l == null)
+            labels = l = buildLabels();
+        return l[index];
+    }
+    
+    /**
+     * @param basePrice the base price
+     * @param index the index of the seat
+     * @return the price of the seat
+     */
+    public Double price(Double basePrice, int index) {
+        return basePrice * multipliers[index / cols];
+    }
+    
+    /**
+     * Converts a seat label to the index of the seat (e.g. "B05" is 25 with 20 seats per row)
+     * @param seat the label, case insensitive
+     * @return the index of the seat
+     * @throws SeatNotFoundException 
+     */
+    public int indexOf(final String seat) throws SeatNotFoundException {
+        if (seat == null)
+            throw new SeatNotFoundException();
+        final String S = seat.trim();
+        int i = 0;
+        int row = 0;
+        for (; i < S.length() && Character.isLetter(S.charAt(i)); i++) {
+            final int L = Character.toUpperCase(S.charAt(i)) - 'A';
+            if (L < 0 || L >= 26 || i >= 2)
+                throw new SeatNotFoundException(seat);
+            row = row * 26 + L + 1;
+        }
+        final int DIGITS = S.length() - i;
+        if (i == 0 || DIGITS < 1 || DIGITS > 3)
+            throw new SeatNotFoundException(seat);
+        int col = 0;
+        for (; i < S.length(); i++) {
+            final char C = S.charAt(i);
+            if (C < '0' || C > '9')
+                throw new SeatNotFoundException(seat);
+            col = col * 10 + (C - '0');
+        }
+        row--;
+        if (row >= rows || col >= cols)
+            throw new SeatNotFoundException(seat);
+        return row * cols + col;
+    }
+    
+    /**
+     * @param rows the number of rows
+     * @param cols the number of seats of each row
+     * @return the layout with the standard prices, from 130% of the base price in the
+     *         front row down to 85% in the back row
+     */
+    public static VenueLayout of(int rows, int cols) {
+        return VenueLayout.of(rows, cols, standardMultipliers(rows));
+    }
+    
+    /**
+     * @param rows the number of rows
+     * @param cols the number of seats of each row
+     * @param multipliers the price of the seats of each row over the base price
+     * @return the layout, shared with every other hall with the same layout
+     * @throws IllegalArgumentException if the layout is too small or too large
+     */
+    public static VenueLayout of(int rows, int cols, double[] multipliers) throws IllegalArgumentException {
+        final VenueLayout LAYOUT = new VenueLayout(rows, cols, multipliers);
+        final VenueLayout SHARED = LAYOUTS.putIfAbsent(LAYOUT, LAYOUT);
+        return (SHARED == null) ? LAYOUT : SHARED;
+    }
+    
+    /**
+     * @param rows the number of rows
+     * @return the price of each row over the base price, as in the original hall
+     */
+    private static double[] standardMultipliers(int rows) {
+        double[] multipliers = new double[rows];
+        for (int r = 0; r < rows; r++)
+            multipliers[r] = (rows == 1) ? 1.30 : (-0.45 * r) / (rows - 1) + 1.30;
+        return multipliers;
+    }
+    
+    /**
+     * @return the label of each seat
+     */
+    private String[] buildLabels() {
+        String[] l = new String[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            final String ROW = rowLabel(r);
+            for (int c = 0; c < cols; c++)
+                l[r * cols + c] = String.format("%s%02d", ROW, c);
+        }
+        return l;
+    }
+    
+    /**
+     * @param row the row
+     * @return the label of the row
+     */
+    private static String rowLabel(int row) {
+        return (row < 26)
+                ? String.valueOf((char) ('A' + row))
+                : String.valueOf((char) ('A' + row / 26 - 1)) + (char) ('A' + row % 26);
+    }
+    
+    /**
+     * @return the layout shared with the halls already loaded
+     * @throws ObjectStreamException 
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return VenueLayout.of(rows, cols, multipliers);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VenueLayout)) return false;
+        final VenueLayout OTHER = (VenueLayout) o;
+        return rows == OTHER.rows && cols == OTHER.cols && Arrays.equals(multipliers, OTHER.multipliers);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rows + cols) + Arrays.hashCode(multipliers);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d x %d", rows, cols);
+    }
+    
+    /**
+     * @param rows the number of rows
+     * @param cols the number of seats of each row
+     * @param multipliers the price of the seats of each row over the base price
+     * @throws IllegalArgumentException 
+     */
+    private VenueLayout(int rows, int cols, double[] multipliers) throws IllegalArgumentException {
+        if (rows < 1 || rows > MAX_ROWS || cols < 1 || cols > MAX_COLS)
+            throw new IllegalArgumentException(String.format("Unsupported layout of %d x %d seats.", rows, cols));
+        if (multipliers.length != rows)
+            throw new IllegalArgumentException(String.format("%d price multipliers for %d rows.", multipliers.length, rows));
+        this.rows        = rows;
+        this.cols        = cols;
+        this.multipliers = multipliers.clone();
+        this.standardPrices = Arrays.equals(this.multipliers, standardMultipliers(rows));
+        this.labels      = null;
+    }
+}
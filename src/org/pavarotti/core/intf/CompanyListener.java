@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.intf;
+
+import java.util.List;
+
+import org.pavarotti.core.components.Performance;
+
+/**
+ * Receives the changes made to the performances and tickets of a Company.
+ * Ticket events may come from several threads at once.
+ * @author Ovelhas do Presépio
+ */
+public interface CompanyListener {
+    /**
+     * All the performances have been loaded or replaced
+     * @param performances the performances
+     */
+    default void performancesLoaded(List<Performance> performances) {}
+    
+    /**
+     * @param performance the performance added or modified
+     */
+    default void performanceAdded(Performance performance) {}
+    
+    /**
+     * @param performance the performance removed or about to be modified
+     */
+    default void performanceRemoved(Performance performance) {}
+    
+    /**
+     * @param ID the performance ID
+     * @param hall the index of the hall
+     * @param seats the indexes of the seats sold
+     * @param millis when the seats were sold, in epoch milliseconds
+     */
+    default void ticketsSold(String ID, int hall, int[] seats, long millis) {}
+    
+    /**
+     * @param ID the performance ID
+     * @param hall the index of the hall
+     * @param seat the index of the seat refunded
+     * @param soldMillis when the seat had been sold, in epoch milliseconds
+     */
+    default void ticketRefunded(String ID, int hall, int seat, long soldMillis) {}
+}
@@ -58,7 +58,7 @@ public interface StaffMember {
      * @return a new randomly generated ID that does not exist on the given collection
      */
     static int generateID(final int MIN, final int MAX, final ArrayList<? extends StaffMember>[] LIST) {
-        // Assuming the list is sorted by ID. Ignores MAX for now.
+        // The lists of a Staff are kept sorted by ID, so the last ID of each is the greatest. Ignores MAX for now.
         int lastID = MIN - 1;
         if (LIST != null)
             for (int i = 0; i < LIST.length; i++) {
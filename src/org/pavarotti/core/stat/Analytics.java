@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.stat;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.pavarotti.core.api.Company;
+import org.pavarotti.core.components.ConcertHall;
+import org.pavarotti.core.components.Performance;
+import org.pavarotti.core.throwable.PerformanceNotFoundException;
+import org.pavarotti.core.throwable.TicketNotSoldException;
+
+/**
+ * Revenue and occupancy reports over all the performances.
+ * Every report is computed with a parallel stream over the halls of the performances,
+ * so large archives are split among the cores of the common fork/join pool.
+ * Revenues are computed at the prices the tickets were sold at.
+ * @author Ovelhas do Presépio
+ */
+public class Analytics {
+    private final Company core;
+    
+    /**
+     * @return the revenue of each performance, by ID
+     */
+    public TreeMap<String, Double> revenueByPerformance() {
+        return this.performances().parallelStream()
+                .collect(Collectors.toMap(Performance::getID, Performance::revenue, Double::sum, TreeMap::new));
+    }
+    
+    /**
+     * @return the revenue of each date of the performances
+     */
+    public TreeMap<LocalDate, Double> revenueByDate() {
+        return this.halls()
+                .collect(Collectors.toMap(h -> h.getWhen().toLocalDate(), ConcertHall::getRevenue, Double::sum, TreeMap::new));
+    }
+    
+    /**
+     * @return the revenue of each row of seats, the front row first
+     */
+    public ArrayList<Double> revenueByRow() {
+        return this.halls().collect(ArrayList::new, Analytics::addRevenueByRow, Analytics::addAll);
+    }
+    
+    /**
+     * Tickets whose sale time is unknown (restored from files without sale times) are
+     * left out, as they belong to no day
+     * @return the revenue of the tickets sold on each day
+     */
+    public TreeMap<LocalDate, Double> revenueBySaleDay() {
+        return this.halls().collect(TreeMap::new, Analytics::addRevenueBySaleDay, Analytics::addRevenues);
+    }
+    
+    /**
+     * @return the occupancy of each performance, in percentage of the seats of all its dates
+     */
+    public TreeMap<String, Double> occupancyByPerformance() {
+        return this.performances().parallelStream()
+                .collect(Collectors.toMap(Performance::getID, Analytics::occupancy, (a, b) -> a, TreeMap::new));
+    }
+    
+    /**
+     * @return the occupancy of all the dates of all the performances, in percentage
+     */
+    public double occupancy() {
+        final long[] TOTAL = this.halls()
+                .map(h -> new long[] {h.countSold(), h.getCapacity()})
+                .reduce(new long[2], (a, b) -> new long[] {a[0] + b[0], a[1] + b[1]});
+        return (TOTAL[1] == 0) ? 0.0 : 100.0 * TOTAL[0] / TOTAL[1];
+    }
+    
+    /**
+     * Sales velocity of a performance: the tickets sold a given number of days before
+     * each date, added up over all its dates.
+     * Tickets whose sale time is unknown are left out.
+     * @param ID the performance ID
+     * @return the tickets sold by days before the date (negative if sold after it)
+     * @throws PerformanceNotFoundException
+     */
+    public TreeMap<Long, Long> salesVelocity(String ID) throws PerformanceNotFoundException {
+        final Performance PERF = this.core.getPerformanceByID(ID);
+        if (PERF == null)
+            throw new PerformanceNotFoundException(ID);
+        return PERF.getHall().parallelStream()
+                .collect(TreeMap::new, Analytics::addSalesByDaysBefore, Analytics::addSales);
+    }
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * @return a copy of the list of performances, taken while no changes are made to it
+     */
+    private List<Performance> performances() {
+        return this.core.snapshotPerformances();
+    }
+    
+    /**
+     * @return a parallel stream of the halls of all the performances
+     */
+    private Stream<ConcertHall> halls() {
+        return this.performances().parallelStream().flatMap(p -> p.getHall().stream());
+    }
+    
+    /**
+     * @param p the performance
+     * @return the occupancy of all its dates, in percentage
+     */
+    private static double occupancy(Performance p) {
+        long sold = 0, capacity = 0;
+        for (ConcertHall h : p.getHall()) {
+            sold     += h.countSold();
+            capacity += h.getCapacity();
+        }
+        return (capacity == 0) ? 0.0 : 100.0 * sold / capacity;
+    }
+    
+    /**
+     * @param result the revenue of each row, to add the hall to
+     * @param h the hall
+     */
+    private static void addRevenueByRow(ArrayList<Double> result, ConcertHall h) {
+        for (int r = 0; r < h.getRows(); r++) {
+            if (r == result.size())
+                result.add(0.0);
+            result.set(r, result.get(r) + h.getRevenue(r));
+        }
+    }
+    
+    /**
+     * @param result the revenue of each row, to add the other partial result to
+     * @param other another partial result
+     */
+    private static void addAll(ArrayList<Double> result, ArrayList<Double> other) {
+        for (int r = 0; r < other.size(); r++) {
+            if (r == result.size())
+                result.add(0.0);
+            result.set(r, result.get(r) + other.get(r));
+        }
+    }
+    
+    /**
+     * @param result the revenue of each sale day, to add the seats of the hall to
+     * @param h the hall
+     */
+    private static void addRevenueBySaleDay(TreeMap<LocalDate, Double> result, ConcertHall h) {
+        for (int i = 0; i < h.getCapacity(); i++) {
+            if (!h.isSold(i)) continue;
+            final long MILLIS = h.getSoldMillis(i);
+            if (MILLIS == 0) continue;      // refunded meanwhile, or sold at an unknown time
+            try {
+                result.merge(toDate(MILLIS), h.getSoldPrice(i), Double::sum);
+            } catch (TicketNotSoldException e) {
+                // refunded meanwhile
+            }
+        }
+    }
+    
+    /**
+     * @param result the seats sold by days before the date, to add the seats of the hall to
+     * @param h the hall
+     */
+    private static void addSalesByDaysBefore(TreeMap<Long, Long> result, ConcertHall h) {
+        final LocalDate DATE = h.getWhen().toLocalDate();
+        for (int i = 0; i < h.getCapacity(); i++) {
+            if (!h.isSold(i)) continue;
+            final long MILLIS = h.getSoldMillis(i);
+            if (MILLIS == 0) continue;      // refunded meanwhile, or sold at an unknown time
+            result.merge(ChronoUnit.DAYS.between(toDate(MILLIS), DATE), 1L, Long::sum);
+        }
+    }
+    
+    /**
+     * @param millis the epoch milliseconds
+     * @return the local date
+     */
+    private static LocalDate toDate(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+    
+    /**
+     * @param result the partial result to add the other one to
+     * @param other another partial result
+     */
+    private static void addRevenues(TreeMap<LocalDate, Double> result, TreeMap<LocalDate, Double> other) {
+        other.forEach((k, v) -> result.merge(k, v, Double::sum));
+    }
+    
+    /**
+     * @param result the partial result to add the other one to
+     * @param other another partial result
+     */
+    private static void addSales(TreeMap<Long, Long> result, TreeMap<Long, Long> other) {
+        other.forEach((k, v) -> result.merge(k, v, Long::sum));
+    }
+    
+    /**
+     * The constructor of the class.
+     * @param core the core of the program
+     */
+    public Analytics(Company core) {
+        this.core = core;
+    }
+}
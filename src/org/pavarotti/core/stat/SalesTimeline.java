@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.stat;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.pavarotti.core.components.ConcertHall;
+import org.pavarotti.core.components.Performance;
+import org.pavarotti.core.intf.CompanyListener;
+
+/**
+ * Sales timeline of every performance: the tickets sold per hour and per day.
+ * The timeline of a performance is counted from its seats the first time it is asked
+ * for, so loading touches no hall, and is then kept up to date on each sale and refund.
+ * Tickets whose sale time is unknown (restored from files without sale times) are left out.
+ * Times are bucketed in the local time of the system.
+ * @author Ovelhas do Presépio
+ */
+public class SalesTimeline implements CompanyListener {
+    private static final long HOUR = 3600_000L;
+    private static final long DAY  = 24 * HOUR;
+    
+    /**
+     * Counters of consecutive buckets of a fixed length, grown as needed
+     */
+    public static class Histogram {
+        private final long width;       // length of a bucket, in milliseconds
+        private long origin;            // number of the first bucket since the epoch
+        private long[] counts;
+        
+        /**
+         * @param width the length of a bucket, in milliseconds
+         */
+        Histogram(long width) {
+            this.width  = width;
+            this.origin = 0;
+            this.counts = new long[0];
+        }
+        
+        /**
+         * @param other the histogram to copy
+         */
+        Histogram(Histogram other) {
+            this.width  = other.width;
+            this.origin = other.origin;
+            this.counts = other.counts.clone();
+        }
+        
+        /**
+         * @param millis the time of the sale, in epoch milliseconds
+         * @param delta the change in tickets sold
+         */
+        void add(long millis, long delta) {
+            final long BUCKET = Math.floorDiv(toLocalMillis(millis), this.width);
+            if (this.counts.length == 0) {
+                this.origin = BUCKET;
+                this.counts = new long[1];
+            } else if (BUCKET < this.origin) {
+                final int SHIFT = (int) (this.origin - BUCKET);
+                long[] grown = new long[this.counts.length + SHIFT];
+                System.arraycopy(this.counts, 0, grown, SHIFT, this.counts.length);
+                this.counts = grown;
+                this.origin = BUCKET;
+            } else if (BUCKET - this.origin >= this.counts.length) {
+                final int SIZE = (int) (BUCKET - this.origin + 1);
+                long[] grown = new long[Math.max(SIZE, this.counts.length * 2)];
+                System.arraycopy(this.counts, 0, grown, 0, this.counts.length);
+                this.counts = grown;
+            }
+            this.counts[(int) (BUCKET - this.origin)] += delta;
+        }
+        
+        /**
+         * @return the start of the first bucket, or null if there were no sales
+         */
+        public LocalDateTime getStart() {
+            if (this.counts.length == 0) return null;
+            return LocalDateTime.ofEpochSecond(Math.multiplyExact(this.origin, this.width) / 1000, 0, ZoneOffset.UTC);
+        }
+        
+        /**
+         * @return the length of a bucket, in milliseconds
+         */
+        public long getWidth() {
+            return this.width;
+        }
+        
+        /**
+         * @return the tickets sold in each bucket, from the start on (may end with empty buckets)
+         */
+        public long[] getCounts() {
+            return this.counts.clone();
+        }
+        
+        /**
+         * @return the tickets sold in each bucket with sales, by the start of the bucket
+         */
+        public TreeMap<LocalDateTime, Long> toMap() {
+            TreeMap<LocalDateTime, Long> result = new TreeMap<>();
+            final LocalDateTime START = this.getStart();
+            for (int i = 0; i < this.counts.length; i++)
+                if (this.counts[i] != 0)
+                    result.put(START.plus(i * this.width, ChronoUnit.MILLIS), this.counts[i]);
+            return result;
+        }
+    }
+    
+    /**
+     * The timeline of a performance
+     */
+    private static class Entry {
+        final Histogram hourly = new Histogram(HOUR);
+        final Histogram daily  = new Histogram(DAY);
+        
+        Entry(Performance p) {
+            for (ConcertHall h : p.getHall()) {
+                for (int i = 0; i < h.getCapacity(); i++) {
+                    if (!h.isSold(i)) continue;
+                    final long MILLIS = h.getSoldMillis(i);
+                    if (MILLIS != 0)        // 0 if refunded meanwhile, or sold at an unknown time
+                        this.add(MILLIS, 1);
+                }
+            }
+        }
+        
+        void add(long millis, long delta) {
+            this.hourly.add(millis, delta);
+            this.daily.add(millis, delta);
+        }
+    }
+    
+    private final HashMap<String, Performance> performances = new HashMap<>();
+    private final HashMap<String, Entry>       entries      = new HashMap<>();     // only the ones asked for
+    
+    @Override
+    public synchronized void performancesLoaded(List<Performance> performances) {
+        this.performances.clear();
+        this.entries.clear();
+        for (Performance p : performances)
+            this.performances.put(p.getID(), p);
+    }
+    
+    @Override
+    public synchronized void performanceAdded(Performance performance) {
+        this.performances.put(performance.getID(), performance);
+        this.entries.remove(performance.getID());
+    }
+    
+    @Override
+    public synchronized void performanceRemoved(Performance performance) {
+        this.performances.remove(performance.getID());
+        this.entries.remove(performance.getID());
+    }
+    
+    @Override
+    public synchronized void ticketsSold(String ID, int hall, int[] seats, long millis) {
+        final Entry E = this.entries.get(ID);
+        if (E != null)
+            E.add(millis, seats.length);
+    }
+    
+    @Override
+    public synchronized void ticketRefunded(String ID, int hall, int seat, long soldMillis) {
+        final Entry E = this.entries.get(ID);
+        if (E != null && soldMillis != 0)
+            E.add(soldMillis, -1);
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return a copy of the tickets sold per hour, or null if the performance does not exist
+     */
+    public synchronized Histogram hourly(String ID) {
+        final Entry E = this.entry(ID);
+        return (E == null) ? null : new Histogram(E.hourly);
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return a copy of the tickets sold per day, or null if the performance does not exist
+     */
+    public synchronized Histogram daily(String ID) {
+        final Entry E = this.entry(ID);
+        return (E == null) ? null : new Histogram(E.daily);
+    }
+    
+    /**
+     * Counts the timeline of a performance from its seats if it was never asked for;
+     * sales and refunds of performances not counted yet are left to that count
+     * @param ID the performance ID
+     * @return the timeline of the performance, or null if it does not exist
+     */
+    private Entry entry(String ID) {
+        Entry e = this.entries.get(ID);
+        if (e == null) {
+            final Performance P = this.performances.get(ID);
+            if (P == null) return null;
+            e = new Entry(P);
+            this.entries.put(ID, e);
+        }
+        return e;
+    }
+    
+    /**
+     * @param millis the epoch milliseconds
+     * @return the milliseconds since the epoch in the local time of the system
+     */
+    private static long toLocalMillis(long millis) {
+        return millis + 1000L * ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds();
+    }
+}
@@ -24,11 +24,16 @@ import java.util.ArrayList;
 import java.time.LocalDateTime;
 
 /**
- *
+ * Statistics of the spectators.
+ * The aggregates are kept by a StatisticsEngine listening to the core, so they are
+ * answered without going through the seats of the halls.
  * @author Ovelhas do Presépio
  */
 public class Statistics {
     private final Company core;
+    private final StatisticsEngine engine;
+    private final Analytics analytics;
+    private final SalesTimeline timeline;
     
     /**
      * The constructor of the class.
@@ -37,7 +42,33 @@ public class Statistics {
      */
     public Statistics(Company core) {
         super();
-        this.core = core;
+        this.core   = core;
+        this.engine = new StatisticsEngine();
+        this.analytics = new Analytics(core);
+        this.timeline  = new SalesTimeline();
+        core.addListener(this.engine);
+        core.addListener(this.timeline);
+    }
+    
+    /**
+     * @return the engine keeping the aggregates
+     */
+    public StatisticsEngine getEngine() {
+        return this.engine;
+    }
+    
+    /**
+     * @return the revenue and occupancy reports
+     */
+    public Analytics getAnalytics() {
+        return this.analytics;
+    }
+    
+    /**
+     * @return the tickets sold per hour and per day of each performance
+     */
+    public SalesTimeline getTimeline() {
+        return this.timeline;
     }
     
     /**
@@ -47,22 +78,10 @@ public class Statistics {
      * @throws PerformanceNotFoundException
      */
     public Double averageSpectators(String ID) throws PerformanceNotFoundException {
-        // Finds the index of the performance (by ID) and throws exception if not found
-        int index = core.getPerformanceIndexByID(ID);
-        if (index == -1)
+        final Double AVERAGE = this.engine.averageSpectators(ID);
+        if (AVERAGE == null)
             throw new PerformanceNotFoundException(ID);
-        
-        // Performance found, get a pointer to the object for easier use
-        final Performance PERF = core.getPerformances().get(index);
-        final int SIZE = PERF.getHall().size();
-        
-        // Compute the sumation of spectators
-        int sum = 0;
-        for (int i = 0; i < SIZE; i++) {
-            sum += PERF.getHall(i).countSold();
-        }
-        // Returns the average
-        return ((double) sum) / SIZE;
+        return AVERAGE;
     }
     
     /**
@@ -72,28 +91,9 @@ public class Statistics {
      * @throws PerformanceNotFoundException
      */
     public LocalDateTime bestPerformanceDay(String ID) throws PerformanceNotFoundException {
-        // Finds the index of the performance (by ID) and throws exception if not found
-        int index = core.getPerformanceIndexByID(ID);
-        if (index == -1)
+        if (this.engine.spectators(ID) == null)
             throw new PerformanceNotFoundException(ID);
-        
-        // Performance found, get a pointer to the object for easier use
-        final Performance PERF = core.getPerformances().get(index);
-        final int SIZE = PERF.getHall().size();
-        
-        // Compute the maximum number of spectators of a performance
-        LocalDateTime date = null;
-        int max = 0;
-        for (int i = 0; i < SIZE; i++) {
-            int sold = PERF.getHall(i).countSold();
-            if (max <= sold){
-                max = sold;
-                date = PERF.getHall(i).getWhen();
-            }
-        }
-        
-        //returns the date of the performance with the most spectators
-        return date;
+        return this.engine.bestDay(ID);
     }
     
     /**
@@ -103,28 +103,9 @@ public class Statistics {
      * @throws PerformanceNotFoundException
      */
     public LocalDateTime worstPerformanceDay(String ID) throws PerformanceNotFoundException {
-        // Finds the index of the performance (by ID) and throws exception if not found
-        int index = core.getPerformanceIndexByID(ID);
-        if (index == -1)
+        if (this.engine.spectators(ID) == null)
             throw new PerformanceNotFoundException(ID);
-        
-        // Performance found, get a pointer to the object for easier use
-        final Performance PERF = core.getPerformances().get(index);
-        final int SIZE = PERF.getHall().size();
-        
-        // Compute the minimum number of spectators of a performance
-        LocalDateTime date = null;
-        int min = Integer.MAX_VALUE;
-        for (int i = 0; i < SIZE; i++) {
-            int sold = PERF.getHall(i).countSold();
-            if (min >= sold){
-                min = sold;
-                date = PERF.getHall(i).getWhen();
-            }
-        }
-
-        //returns the date of the performance with the least spectators
-        return date;
+        return this.engine.worstDay(ID);
     }
     
     /**
@@ -139,11 +120,8 @@ public class Statistics {
             if(index < 0)
                 throw new PerformanceNotFoundException();
             
-            final Performance PERF = core.getPerformances().get(index);
-            final int SIZE = PERF.getHall().size();
-            for (int i = 0; i < SIZE; i++) {
-                sum += (long) PERF.getHall(i).countSold();
-            }
+            final Performance PERF = core.snapshotPerformances().get(index);
+            sum = PERF.ticketsSold();
         }catch (IndexOutOfBoundsException e){
             throw new PerformanceNotFoundException("N/A");
         }
@@ -157,10 +135,10 @@ public class Statistics {
      * @throws PerformanceNotFoundException
      */
     public long sumAllSpectators(String ID) throws PerformanceNotFoundException{
-        int index = core.getPerformanceIndexByID(ID);
-        if (index == -1)
+        final Long SUM = this.engine.spectators(ID);
+        if (SUM == null)
             throw new PerformanceNotFoundException(ID);
-        return sumAllSpectators(index);
+        return SUM;
     }
     
     /**
@@ -169,18 +147,7 @@ public class Statistics {
      * @throws PerformanceNotFoundException
      */
     public String mostWatchedPerformance() throws PerformanceNotFoundException {
-        final ArrayList<Performance> PERF = core.getPerformances();
-        final int SIZE = core.getPerformances().size();
-        String ID = "";
-        long max = 0;
-        for (int i = 0; i < SIZE; i++){
-            long sum = sumAllSpectators(i);
-            if (max <= sum) {
-                max = sum;
-                ID = PERF.get(i).getID();
-            }
-        }
-        return ID;
+        return this.engine.mostWatched();
     }
     
     /**
@@ -189,17 +156,22 @@ public class Statistics {
      * @throws PerformanceNotFoundException
      */
      public String leastWatchedPerformance() throws PerformanceNotFoundException {
-        final ArrayList<Performance> PERF = core.getPerformances();
-        final int SIZE = core.getPerformances().size();
-        String ID = "";
-        long min = Integer.MAX_VALUE;
-        for (int i = 0; i < SIZE; i++) {
-            long sum = sumAllSpectators(i);
-            if (min >= sum) { 
-                min = sum;
-                ID = PERF.get(i).getID();
-            }
-        }
-        return ID;
+        return this.engine.leastWatched();
+    }
+    
+    /**
+     * @param k the number of performances
+     * @return the IDs of the k most watched performances, most watched first
+     */
+    public ArrayList<String> mostWatchedPerformances(int k) {
+        return this.engine.top(k);
+    }
+    
+    /**
+     * @param k the number of performances
+     * @return the IDs of the k least watched performances, least watched first
+     */
+    public ArrayList<String> leastWatchedPerformances(int k) {
+        return this.engine.bottom(k);
     }
-}
\ No newline at end of file
+}
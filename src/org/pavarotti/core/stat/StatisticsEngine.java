@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.stat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.pavarotti.core.components.Performance;
+import org.pavarotti.core.intf.CompanyListener;
+
+/**
+ * Aggregate statistics of the spectators, kept up to date from the events of a Company.
+ * The spectators of a performance are read from the counters of its halls the first
+ * time they are asked for, and read again once a sale or refund changed them, so
+ * loading touches no hall and a query only touches the halls of the performances it needs.
+ * The performances are ranked by spectators and, when tied, in the order of the Company
+ * (by first date).
+ * @author Ovelhas do Presépio
+ */
+public class StatisticsEngine implements CompanyListener {
+    /**
+     * The spectators of a performance
+     */
+    private static class Entry {
+        final String ID;
+        final Performance performance;
+        final LocalDateTime first;      // orders tied entries as the Company does
+        final LocalDateTime[] dates;
+        final int[] sold;               // per date
+        long total;
+        
+        Entry(Performance p) {
+            final int SIZE = p.getHall().size();
+            this.ID          = p.getID();
+            this.performance = p;
+            this.first       = (SIZE == 0) ? LocalDateTime.MAX : p.getHall(0).getWhen();
+            this.dates       = new LocalDateTime[SIZE];
+            this.sold        = new int[SIZE];
+            for (int i = 0; i < SIZE; i++)
+                this.dates[i] = p.getHall(i).getWhen();
+            this.count();
+        }
+        
+        /**
+         * A probe placed before every entry with the given spectators
+         * @param total the spectators
+         */
+        Entry(long total) {
+            this.ID          = "";
+            this.performance = null;
+            this.first       = LocalDateTime.MIN;
+            this.dates       = new LocalDateTime[0];
+            this.sold        = new int[0];
+            this.total       = total;
+        }
+        
+        /**
+         * Reads the spectators of every date from the counters of the halls
+         */
+        final void count() {
+            this.total = 0;
+            for (int i = 0; i < this.sold.length; i++) {
+                this.sold[i]  = this.performance.getHall(i).countSold();
+                this.total   += this.sold[i];
+            }
+        }
+    }
+    
+    private static final Comparator<Entry> BY_SPECTATORS =
+            Comparator.<Entry>comparingLong(e -> e.total).thenComparing(e -> e.first).thenComparing(e -> e.ID);
+    
+    private final HashMap<String, Performance> performances = new HashMap<>();
+    private final HashMap<String, Entry>       entries      = new HashMap<>();
+    private final HashSet<String>              stale        = new HashSet<>();
+    private TreeSet<Entry> ranking;     // null until a ranking is asked for
+    
+    @Override
+    public synchronized void performancesLoaded(List<Performance> performances) {
+        this.performances.clear();
+        this.entries.clear();
+        this.stale.clear();
+        this.ranking = null;
+        for (Performance p : performances)
+            this.performances.put(p.getID(), p);
+    }
+    
+    @Override
+    public synchronized void performanceAdded(Performance performance) {
+        this.remove(performance.getID());
+        this.performances.put(performance.getID(), performance);
+        if (this.ranking != null)
+            this.entry(performance.getID());
+    }
+    
+    @Override
+    public synchronized void performanceRemoved(Performance performance) {
+        this.remove(performance.getID());
+    }
+    
+    @Override
+    public synchronized void ticketsSold(String ID, int hall, int[] seats, long millis) {
+        if (this.entries.containsKey(ID))
+            this.stale.add(ID);
+    }
+    
+    @Override
+    public synchronized void ticketRefunded(String ID, int hall, int seat, long soldMillis) {
+        if (this.entries.containsKey(ID))
+            this.stale.add(ID);
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return the spectators of all the dates, or null if the performance does not exist
+     */
+    public synchronized Long spectators(String ID) {
+        final Entry E = this.entry(ID);
+        return (E == null) ? null : E.total;
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return the average of spectators per date, or null if the performance does not exist
+     */
+    public synchronized Double averageSpectators(String ID) {
+        final Entry E = this.entry(ID);
+        return (E == null) ? null : ((double) E.total) / E.sold.length;
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return the date with the most spectators (the last one, if tied), or null if none
+     */
+    public synchronized LocalDateTime bestDay(String ID) {
+        final Entry E = this.entry(ID);
+        if (E == null) return null;
+        LocalDateTime date = null;
+        int max = 0;
+        for (int i = 0; i < E.sold.length; i++) {
+            if (max <= E.sold[i]) {
+                max  = E.sold[i];
+                date = E.dates[i];
+            }
+        }
+        return date;
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return the date with the least spectators (the last one, if tied), or null if none
+     */
+    public synchronized LocalDateTime worstDay(String ID) {
+        final Entry E = this.entry(ID);
+        if (E == null) return null;
+        LocalDateTime date = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < E.sold.length; i++) {
+            if (min >= E.sold[i]) {
+                min  = E.sold[i];
+                date = E.dates[i];
+            }
+        }
+        return date;
+    }
+    
+    /**
+     * @return the ID of the most watched performance (the last one, if tied), or an empty
+     * string if there are none
+     */
+    public synchronized String mostWatched() {
+        final TreeSet<Entry> RANKING = this.ranking();
+        return RANKING.isEmpty() ? "" : RANKING.last().ID;
+    }
+    
+    /**
+     * @return the ID of the least watched performance (the last one, if tied), or an empty
+     * string if there are none
+     */
+    public synchronized String leastWatched() {
+        final TreeSet<Entry> RANKING = this.ranking();
+        return RANKING.isEmpty() ? "" : RANKING.lower(new Entry(RANKING.first().total + 1)).ID;
+    }
+    
+    /**
+     * @param k the number of performances
+     * @return the IDs of the k most watched performances, most watched first
+     */
+    public synchronized ArrayList<String> top(int k) {
+        return this.take(this.ranking().descendingIterator(), k);
+    }
+    
+    /**
+     * @param k the number of performances
+     * @return the IDs of the k least watched performances, least watched first
+     */
+    public synchronized ArrayList<String> bottom(int k) {
+        return this.take(this.ranking().iterator(), k);
+    }
+    
+    /**
+     * @param it the iterator over the ranking
+     * @param k the number of performances
+     * @return the IDs of the first k performances
+     */
+    private ArrayList<String> take(Iterator<Entry> it, int k) {
+        ArrayList<String> result = new ArrayList<>(Math.max(0, Math.min(k, this.ranking.size())));
+        while (it.hasNext() && result.size() < k)
+            result.add(it.next().ID);
+        return result;
+    }
+    
+    /**
+     * Reads the spectators of a performance if they were never read or have changed since
+     * @param ID the performance ID
+     * @return the spectators of the performance, or null if it does not exist
+     */
+    private Entry entry(String ID) {
+        Entry e = this.entries.get(ID);
+        if (e == null) {
+            final Performance P = this.performances.get(ID);
+            if (P == null) return null;
+            e = new Entry(P);
+            this.entries.put(ID, e);
+            if (this.ranking != null)
+                this.ranking.add(e);
+        } else if (this.stale.remove(ID)) {
+            if (this.ranking != null)
+                this.ranking.remove(e);
+            e.count();
+            if (this.ranking != null)
+                this.ranking.add(e);
+        }
+        return e;
+    }
+    
+    /**
+     * Ranks every performance the first time, and then only reads the changed ones again
+     * @return the performances ranked by spectators, least watched first
+     */
+    private TreeSet<Entry> ranking() {
+        if (this.ranking == null) {
+            this.ranking = new TreeSet<>(BY_SPECTATORS);
+            for (String ID : this.performances.keySet())
+                this.ranking.add(this.entry(ID));
+        }
+        for (String ID : new ArrayList<>(this.stale))
+            this.entry(ID);
+        return this.ranking;
+    }
+    
+    /**
+     * @param ID the ID of the performance to remove
+     */
+    private void remove(String ID) {
+        this.performances.remove(ID);
+        this.stale.remove(ID);
+        Entry e = this.entries.remove(ID);
+        if (e != null && this.ranking != null)
+            this.ranking.remove(e);
+    }
+}
@@ -0,0 +1,805 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.ui.controller;
+
+import java.time.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeMap;
+
+import org.pavarotti.core.intf.*;
+import org.pavarotti.core.components.*;
+import org.pavarotti.core.throwable.*;
+import org.pavarotti.ui.intf.*;
+import org.util.Metrics;
+
+/**
+ * Controller that times every call to another one, under "controller." plus the
+ * name of the method, before handing it over. The calls that start, stop and bind
+ * the application are handed over untimed.
+ * @author Ovelhas do Presépio
+ */
+class MeteredController extends Controller {
+    private final Controller controller;
+    private final Metrics metrics;
+    
+    /**
+     * @param controller the controller to time
+     * @param metrics where to record the durations
+     */
+    MeteredController(Controller controller, Metrics metrics) {
+        this.controller = controller;
+        this.metrics    = metrics;
+    }
+    
+    @Override
+    public void launch(String[] args) throws Exception {
+        this.controller.launch(args);
+    }
+    
+    @Override
+    public void stop() throws Exception {
+        this.controller.stop();
+    }
+    
+    @Override
+    public void emergencyStop() {
+        this.controller.emergencyStop();
+    }
+    
+    @Override
+    public void refresh() throws Exception {
+        this.controller.refresh();
+    }
+    
+    @Override
+    public void bindViewer(Viewer viewer) {
+        this.controller.bindViewer(viewer);
+    }
+    
+    @Override
+    public Viewer getViewer(int index) throws IndexOutOfBoundsException {
+        return this.controller.getViewer(index);
+    }
+    
+    @Override
+    public Viewer getViewer(String arg) {
+        return this.controller.getViewer(arg);
+    }
+    
+    @Override
+    public void addViewer(Viewer viewer, String arg) {
+        this.controller.addViewer(viewer, arg);
+    }
+    
+    @Override
+    public Versioning getVersion() {
+        return this.controller.getVersion();
+    }
+    
+    @Override
+    public void setupCompanyInfo(String name, String city, String country, Integer director) {
+        final long START = this.metrics.start();
+        try {
+            this.controller.setupCompanyInfo(name, city, country, director);
+        } finally {
+            this.metrics.stop("controller.setupCompanyInfo", START);
+        }
+    }
+    
+    @Override
+    public String getCompanyName() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getCompanyName();
+        } finally {
+            this.metrics.stop("controller.getCompanyName", START);
+        }
+    }
+    
+    @Override
+    public String getCompanyCity() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getCompanyCity();
+        } finally {
+            this.metrics.stop("controller.getCompanyCity", START);
+        }
+    }
+    
+    @Override
+    public String getCompanyCountry() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getCompanyCountry();
+        } finally {
+            this.metrics.stop("controller.getCompanyCountry", START);
+        }
+    }
+    
+    @Override
+    public Integer getCompanyDirector() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getCompanyDirector();
+        } finally {
+            this.metrics.stop("controller.getCompanyDirector", START);
+        }
+    }
+    
+    @Override
+    public String getCompanyDirectorName() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getCompanyDirectorName();
+        } finally {
+            this.metrics.stop("controller.getCompanyDirectorName", START);
+        }
+    }
+    
+    @Override
+    public boolean newSinger(String name, char gender, String position, LocalDate birthday) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.newSinger(name, gender, position, birthday);
+        } finally {
+            this.metrics.stop("controller.newSinger", START);
+        }
+    }
+    
+    @Override
+    public boolean newDancer(String name, char gender, String position, LocalDate birthday) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.newDancer(name, gender, position, birthday);
+        } finally {
+            this.metrics.stop("controller.newDancer", START);
+        }
+    }
+    
+    @Override
+    public boolean newDirector(String name, char gender, String position, LocalDate birthday) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.newDirector(name, gender, position, birthday);
+        } finally {
+            this.metrics.stop("controller.newDirector", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> ArrayList<T> getAllSingers() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getAllSingers();
+        } finally {
+            this.metrics.stop("controller.getAllSingers", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> ArrayList<T> getAllDancers() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getAllDancers();
+        } finally {
+            this.metrics.stop("controller.getAllDancers", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> ArrayList<T> getAllDirectors() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getAllDirectors();
+        } finally {
+            this.metrics.stop("controller.getAllDirectors", START);
+        }
+    }
+    
+    @Override
+    public boolean deleteSinger(int ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.deleteSinger(ID);
+        } finally {
+            this.metrics.stop("controller.deleteSinger", START);
+        }
+    }
+    
+    @Override
+    public boolean deleteDancer(int ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.deleteDancer(ID);
+        } finally {
+            this.metrics.stop("controller.deleteDancer", START);
+        }
+    }
+    
+    @Override
+    public boolean deleteDirector(int ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.deleteDirector(ID);
+        } finally {
+            this.metrics.stop("controller.deleteDirector", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> T searchSinger(int ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchSinger(ID);
+        } finally {
+            this.metrics.stop("controller.searchSinger", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> T searchDancer(int ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchDancer(ID);
+        } finally {
+            this.metrics.stop("controller.searchDancer", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> T searchDirector(int ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchDirector(ID);
+        } finally {
+            this.metrics.stop("controller.searchDirector", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> ArrayList<T> searchSingers(String name) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchSingers(name);
+        } finally {
+            this.metrics.stop("controller.searchSingers", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> ArrayList<T> searchDancers(String name) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchDancers(name);
+        } finally {
+            this.metrics.stop("controller.searchDancers", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> ArrayList<T> searchDirectors(String name) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchDirectors(name);
+        } finally {
+            this.metrics.stop("controller.searchDirectors", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> void modifySinger(int ID, T t) {
+        final long START = this.metrics.start();
+        try {
+            this.controller.modifySinger(ID, t);
+        } finally {
+            this.metrics.stop("controller.modifySinger", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> void modifyDancer(int ID, T t) {
+        final long START = this.metrics.start();
+        try {
+            this.controller.modifyDancer(ID, t);
+        } finally {
+            this.metrics.stop("controller.modifyDancer", START);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")     // T inherits the generic withName of StaffMember, as in Controller
+    public <T extends Person & StaffMember> void modifyDirector(int ID, T t) {
+        final long START = this.metrics.start();
+        try {
+            this.controller.modifyDirector(ID, t);
+        } finally {
+            this.metrics.stop("controller.modifyDirector", START);
+        }
+    }
+    
+    @Override
+    public boolean performanceIDExists(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.performanceIDExists(ID);
+        } finally {
+            this.metrics.stop("controller.performanceIDExists", START);
+        }
+    }
+    
+    @Override
+    public boolean newPerformance(String ID, String name, ArrayList<LocalDateTime> when, Double basePrice, Integer operadirector, Integer castingdirector, ArrayList<Integer> singers, ArrayList<Integer> dancers) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.newPerformance(ID, name, when, basePrice, operadirector, castingdirector, singers, dancers);
+        } finally {
+            this.metrics.stop("controller.newPerformance", START);
+        }
+    }
+    
+    @Override
+    public ArrayList<Performance> getAllPerformances() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getAllPerformances();
+        } finally {
+            this.metrics.stop("controller.getAllPerformances", START);
+        }
+    }
+    
+    @Override
+    public Performance searchPerformance(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchPerformance(ID);
+        } finally {
+            this.metrics.stop("controller.searchPerformance", START);
+        }
+    }
+    
+    @Override
+    public ArrayList<Performance> searchPerformanceByDate(LocalDateTime after, LocalDateTime before) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.searchPerformanceByDate(after, before);
+        } finally {
+            this.metrics.stop("controller.searchPerformanceByDate", START);
+        }
+    }
+    
+    @Override
+    public boolean deletePerformance(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.deletePerformance(ID);
+        } finally {
+            this.metrics.stop("controller.deletePerformance", START);
+        }
+    }
+    
+    @Override
+    public boolean modifyPerformanceName(String ID, String name) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.modifyPerformanceName(ID, name);
+        } finally {
+            this.metrics.stop("controller.modifyPerformanceName", START);
+        }
+    }
+    
+    @Override
+    public boolean modifyPerformanceWhen(String ID, ArrayList<LocalDateTime> when) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.modifyPerformanceWhen(ID, when);
+        } finally {
+            this.metrics.stop("controller.modifyPerformanceWhen", START);
+        }
+    }
+    
+    @Override
+    public boolean modifyPerformanceSingers(String ID, ArrayList<Integer> singers) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.modifyPerformanceSingers(ID, singers);
+        } finally {
+            this.metrics.stop("controller.modifyPerformanceSingers", START);
+        }
+    }
+    
+    @Override
+    public boolean modifyPerformanceDancers(String ID, ArrayList<Integer> dancers) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.modifyPerformanceDancers(ID, dancers);
+        } finally {
+            this.metrics.stop("controller.modifyPerformanceDancers", START);
+        }
+    }
+    
+    @Override
+    public boolean modifyPerformanceDirectors(String ID, Integer opera, Integer casting) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.modifyPerformanceDirectors(ID, opera, casting);
+        } finally {
+            this.metrics.stop("controller.modifyPerformanceDirectors", START);
+        }
+    }
+    
+    @Override
+    public boolean modifyPerformancePrice(String ID, Double price) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.modifyPerformancePrice(ID, price);
+        } finally {
+            this.metrics.stop("controller.modifyPerformancePrice", START);
+        }
+    }
+    
+    @Override
+    public double getPerformancePrice(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getPerformancePrice(ID);
+        } finally {
+            this.metrics.stop("controller.getPerformancePrice", START);
+        }
+    }
+    
+    @Override
+    public Ticket getTicketInfo(String showID, String seat, int index) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getTicketInfo(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.getTicketInfo", START);
+        }
+    }
+    
+    @Override
+    public Double getTicketPrice(String showID, String seat) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getTicketPrice(showID, seat);
+        } finally {
+            this.metrics.stop("controller.getTicketPrice", START);
+        }
+    }
+    
+    @Override
+    public boolean isTicketSold(String showID, String seat, int index) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.isTicketSold(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.isTicketSold", START);
+        }
+    }
+    
+    @Override
+    public LocalDateTime whenTicketSold(String showID, String seat, int index) throws TicketNotSoldException {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.whenTicketSold(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.whenTicketSold", START);
+        }
+    }
+    
+    @Override
+    public boolean sellTicket(String showID, String seat, int index) throws TicketSoldException {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.sellTicket(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.sellTicket", START);
+        }
+    }
+    
+    @Override
+    public boolean refundTicket(String showID, String seat, int index) throws TicketNotSoldException {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.refundTicket(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.refundTicket", START);
+        }
+    }
+    
+    @Override
+    public int getSeatIndex(String showID, String seat) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.getSeatIndex(showID, seat);
+        } finally {
+            this.metrics.stop("controller.getSeatIndex", START);
+        }
+    }
+    
+    @Override
+    public boolean isTicketSold(String showID, int seat, int index) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.isTicketSold(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.isTicketSold", START);
+        }
+    }
+    
+    @Override
+    public LocalDateTime whenTicketSold(String showID, int seat, int index) throws TicketNotSoldException {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.whenTicketSold(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.whenTicketSold", START);
+        }
+    }
+    
+    @Override
+    public boolean sellTicket(String showID, int seat, int index) throws TicketSoldException {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.sellTicket(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.sellTicket", START);
+        }
+    }
+    
+    @Override
+    public boolean sellTickets(String showID, int index, Collection<String> seats) throws TicketSoldException {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.sellTickets(showID, index, seats);
+        } finally {
+            this.metrics.stop("controller.sellTickets", START);
+        }
+    }
+    
+    @Override
+    public ArrayList<String> findBestSeats(String showID, int index, int count) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.findBestSeats(showID, index, count);
+        } finally {
+            this.metrics.stop("controller.findBestSeats", START);
+        }
+    }
+    
+    @Override
+    public boolean refundTicket(String showID, int seat, int index) throws TicketNotSoldException {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.refundTicket(showID, seat, index);
+        } finally {
+            this.metrics.stop("controller.refundTicket", START);
+        }
+    }
+    
+    @Override
+    public boolean hasAvailableTickets(String showID, int index) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.hasAvailableTickets(showID, index);
+        } finally {
+            this.metrics.stop("controller.hasAvailableTickets", START);
+        }
+    }
+    
+    @Override
+    public Integer ticketsAvailable(String showID, int index) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.ticketsAvailable(showID, index);
+        } finally {
+            this.metrics.stop("controller.ticketsAvailable", START);
+        }
+    }
+    
+    @Override
+    public Integer ticketsSold(String showID, int index) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.ticketsSold(showID, index);
+        } finally {
+            this.metrics.stop("controller.ticketsSold", START);
+        }
+    }
+    
+    @Override
+    public Integer hallCapacity(String showID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.hallCapacity(showID);
+        } finally {
+            this.metrics.stop("controller.hallCapacity", START);
+        }
+    }
+    
+    @Override
+    public ArrayList<ArrayList<Boolean>> hallSoldMatrix(String ID, int index) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.hallSoldMatrix(ID, index);
+        } finally {
+            this.metrics.stop("controller.hallSoldMatrix", START);
+        }
+    }
+    
+    @Override
+    public Double averageSpectators(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.averageSpectators(ID);
+        } finally {
+            this.metrics.stop("controller.averageSpectators", START);
+        }
+    }
+    
+    @Override
+    public LocalDateTime bestPerformanceDay(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.bestPerformanceDay(ID);
+        } finally {
+            this.metrics.stop("controller.bestPerformanceDay", START);
+        }
+    }
+    
+    @Override
+    public LocalDateTime worstPerformanceDay(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.worstPerformanceDay(ID);
+        } finally {
+            this.metrics.stop("controller.worstPerformanceDay", START);
+        }
+    }
+    
+    @Override
+    public String mostWatchedPerformance() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.mostWatchedPerformance();
+        } finally {
+            this.metrics.stop("controller.mostWatchedPerformance", START);
+        }
+    }
+    
+    @Override
+    public String leastWatchedPerformance() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.leastWatchedPerformance();
+        } finally {
+            this.metrics.stop("controller.leastWatchedPerformance", START);
+        }
+    }
+    
+    @Override
+    public long sumAllSpectators(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.sumAllSpectators(ID);
+        } finally {
+            this.metrics.stop("controller.sumAllSpectators", START);
+        }
+    }
+    
+    @Override
+    public TreeMap<String, Double> revenueByPerformance() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.revenueByPerformance();
+        } finally {
+            this.metrics.stop("controller.revenueByPerformance", START);
+        }
+    }
+    
+    @Override
+    public TreeMap<LocalDate, Double> revenueByDate() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.revenueByDate();
+        } finally {
+            this.metrics.stop("controller.revenueByDate", START);
+        }
+    }
+    
+    @Override
+    public ArrayList<Double> revenueByRow() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.revenueByRow();
+        } finally {
+            this.metrics.stop("controller.revenueByRow", START);
+        }
+    }
+    
+    @Override
+    public TreeMap<LocalDate, Double> revenueBySaleDay() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.revenueBySaleDay();
+        } finally {
+            this.metrics.stop("controller.revenueBySaleDay", START);
+        }
+    }
+    
+    @Override
+    public TreeMap<String, Double> occupancyByPerformance() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.occupancyByPerformance();
+        } finally {
+            this.metrics.stop("controller.occupancyByPerformance", START);
+        }
+    }
+    
+    @Override
+    public double occupancy() {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.occupancy();
+        } finally {
+            this.metrics.stop("controller.occupancy", START);
+        }
+    }
+    
+    @Override
+    public TreeMap<Long, Long> salesVelocity(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.salesVelocity(ID);
+        } finally {
+            this.metrics.stop("controller.salesVelocity", START);
+        }
+    }
+    
+    @Override
+    public TreeMap<LocalDateTime, Long> hourlySales(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.hourlySales(ID);
+        } finally {
+            this.metrics.stop("controller.hourlySales", START);
+        }
+    }
+    
+    @Override
+    public TreeMap<LocalDateTime, Long> dailySales(String ID) {
+        final long START = this.metrics.start();
+        try {
+            return this.controller.dailySales(ID);
+        } finally {
+            this.metrics.stop("controller.dailySales", START);
+        }
+    }
+}
@@ -20,9 +20,15 @@ import java.util.*;
 import java.io.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.pavarotti.ui.intf.*;
 import org.pavarotti.core.api.Company;
+import org.pavarotti.core.stat.SalesTimeline;
 import org.pavarotti.core.components.*;
 import org.pavarotti.core.intf.*;
 import org.pavarotti.core.throwable.*;
@@ -49,27 +55,45 @@ public class Program extends Controller {
      * Stores flags regarding the status of the application
      */
     private class StateMachine {
+        /**
+         * What changed since it was last saved, as flags coalesced until the next save
+         */
         protected class Changed {
-            public boolean info;
-            public boolean shows;
-            public boolean singers;
-            public boolean dancers;
-            public boolean directors;
+            public static final int INFO      = 1;
+            public static final int SHOWS     = 2;
+            public static final int SINGERS   = 4;
+            public static final int DANCERS   = 8;
+            public static final int DIRECTORS = 16;
             
-            public Changed() {
-                this.info      = false;
-                this.dancers   = false;
-                this.directors = false;
-                this.shows     = false;
-                this.singers   = false;
+            private final AtomicInteger flags   = new AtomicInteger();
+            private final AtomicInteger pending = new AtomicInteger();     // changes since the last save
+            
+            /**
+             * @param what the flags of what changed
+             */
+            public void mark(int what) {
+                this.flags.getAndUpdate(f -> f | what);
+                if (this.pending.incrementAndGet() >= autosaveThreshold)
+                    requestAutosave();
+            }
+            
+            /**
+             * @return the flags of what changed, which are cleared
+             */
+            public int take() {
+                this.pending.set(0);
+                return this.flags.getAndSet(0);
+            }
+            
+            /**
+             * @param what the flags taken but not saved, to be saved next time
+             */
+            public void restore(int what) {
+                this.flags.getAndUpdate(f -> f | what);
             }
             
             public void reset() {
-                this.info      = false;
-                this.dancers   = false;
-                this.directors = false;
-                this.shows     = false;
-                this.singers   = false;
+                this.take();
             }
         }
         
@@ -92,6 +116,10 @@ public class Program extends Controller {
     private static final String FNAME_DANCERS      = "perfdanc.dat";
     private static final String FNAME_DIRECTORS    = "director.dat";
     private static final String FNAME_PERFORMANCES = "perfshow.dat";
+    private static final String FNAME_METRICS      = "metrics.log";
+    private static final long   METRICS_PERIOD     = 60;       // seconds between lines of the metrics log
+    private static final long   AUTOSAVE_PERIOD    = 5;        // default seconds between background saves
+    private static final int    AUTOSAVE_THRESHOLD = 20;       // changes that trigger a save before the period ends
     
     private static final String ERRMSG_LOADALL =
             "Error loading at least one of the files. The data might be corrupted.\n";
@@ -128,7 +156,7 @@ public class Program extends Controller {
             try {
                 core.saveCompanyInfo();
                 core.saveDirectors();
-                flags.changed.directors = true;
+                flags.changed.mark(StateMachine.Changed.DIRECTORS);
             } catch (IOException e) {
                 currentviewer.showError("Erro inesperado ao guardar informação da companhia em disco.\n");
             }
@@ -250,6 +278,11 @@ public class Program extends Controller {
     private Viewer currentviewer;
     private final ArrayList<ViewerInfo> viewers;
     private StateMachine flags;
+    private final MeteredController metered;        // what the viewers are bound to
+    private ScheduledExecutorService metricsLog;
+    private ScheduledExecutorService autosave;
+    private long autosavePeriod   = AUTOSAVE_PERIOD;    // seconds, 0 to save only on refresh and stop
+    private int autosaveThreshold = AUTOSAVE_THRESHOLD;
     
     // -------------------------------------------------------------------------
     // -------------------------------------------------------------------------
@@ -264,6 +297,7 @@ public class Program extends Controller {
         this.version       = version;
         this.startStateMachine();
         this.startCore();
+        this.metered       = new MeteredController(this, core.getMetrics());
     }
     
     /**
@@ -279,6 +313,7 @@ public class Program extends Controller {
         this.version       = new Version(major, minor, iteration, stage);
         this.startStateMachine();
         this.startCore();
+        this.metered       = new MeteredController(this, core.getMetrics());
     }
     
     /**
@@ -310,33 +345,60 @@ public class Program extends Controller {
             args[i] = args[i].toUpperCase();
         }
         
-        switch (args[0]) {
-            case "--HELP":     // Access to help, must be first, ignores further arguments
-            case "-H":
-            case "-?":
-                this.currentviewer.showHelp();
-                return false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--HELP":     // Access to help, ignores further arguments
+                case "-H":
+                case "-?":
+                    this.currentviewer.showHelp();
+                    return false;
+
+                case "--ABOUT":    // Access to about, ignores further arguments
+                case "-A":
+                    this.currentviewer.showAbout();
+                    return false;
+
+                case "--MODE":      // Changes interface mode, must have binded viewers
+                case "-M":
+                    if (i + 1 < args.length) {
+                        Viewer v = this.getViewer(args[++i]);
+                        if (v != null)
+                            this.bindViewer(v);
+                        else
+                            throw new Exception(String.format("No viewer found for %s.", args[i]));
+                    } else {
+                        throw new Exception("Insufficient arguments.");
+                    }
+                    break;
+
+                case "--MAPPED":    // Keeps the seats in a memory mapped file
+                case "-S":
+                    core.setMappedSeats(true);
+                    break;
 
-            case "--ABOUT":    // Access to about, must be first, ignores further arguments
-            case "-A":
-                this.currentviewer.showAbout();
-                return false;
+                case "--METRICS":   // Logs the metrics periodically and on exit
+                case "-T":
+                    this.startMetricsLog();
+                    break;
 
-            case "--MODE":      // Changes interface mode, must have binded viewers
-            case "-M":
-                if (args.length >= 2) {
-                    Viewer v = this.getViewer(args[1]);
-                    if (v != null)
-                        this.bindViewer(v);
-                    else
-                        throw new Exception(String.format("No viewer found for %s.", args[1]));
-                } else {
-                    throw new Exception("Insufficient arguments.");
-                }
-                break;
+                case "--AUTOSAVE":  // Seconds between background saves, 0 to disable
+                case "-W":
+                    if (i + 1 < args.length) {
+                        try {
+                            this.autosavePeriod = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new Exception(String.format("Invalid autosave period %s.", args[i]));
+                        }
+                        if (this.autosavePeriod < 0)
+                            throw new Exception(String.format("Invalid autosave period %s.", args[i]));
+                    } else {
+                        throw new Exception("Insufficient arguments.");
+                    }
+                    break;
 
-            default:            // Anything else - invalid arguments
-                throw new Exception("Invalid arguments");
+                default:            // Anything else - invalid arguments
+                    throw new Exception("Invalid arguments");
+            }
         }
         
         return true;
@@ -374,6 +436,7 @@ public class Program extends Controller {
                 currentviewer.showError("Ficheiro de espetáculos corrompido.\n");
             */
             
+            this.startAutosave();
             this.currentviewer.launchViewer(args);
         }
     }
@@ -384,7 +447,122 @@ public class Program extends Controller {
      */
     @Override
     public void stop() throws Exception {
+        if (this.autosave != null) {
+            this.autosave.shutdown();
+            this.autosave.awaitTermination(1, TimeUnit.MINUTES);
+            this.autosave = null;
+        }
         this.refresh();
+        core.awaitPersistence();
+        if (this.metricsLog != null) {
+            this.metricsLog.shutdownNow();
+            this.metricsLog = null;
+            this.logMetrics(System.lineSeparator() + core.getMetrics().dump());
+        }
+    }
+    
+    /**
+     * Starts saving the changes in the background, periodically and whenever enough changes pile up
+     */
+    private void startAutosave() {
+        if (this.autosave != null || this.autosavePeriod == 0) return;
+        this.autosave = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pavarotti-autosave");
+            t.setDaemon(true);
+            return t;
+        });
+        this.autosave.scheduleAtFixedRate(
+                this::autosaveNow,
+                this.autosavePeriod, this.autosavePeriod, TimeUnit.SECONDS
+        );
+    }
+    
+    /**
+     * Asks the autosave thread to save the changes as soon as possible, without waiting for it
+     */
+    private void requestAutosave() {
+        final ScheduledExecutorService AUTOSAVE = this.autosave;
+        if (AUTOSAVE == null) return;
+        try {
+            AUTOSAVE.execute(this::autosaveNow);
+        } catch (RejectedExecutionException e) {
+            // stopping, the changes are saved by stop
+        }
+    }
+    
+    /**
+     * Saves what changed since the last save, from the autosave thread
+     */
+    private void autosaveNow() {
+        final int CHANGED = flags.changed.take();
+        if (CHANGED == 0 && !core.needsCompaction()) return;
+        final long START = core.getMetrics().start();
+        try {
+            this.persist(CHANGED);
+        } catch (IOException e) {
+            core.getMetrics().counter("autosave.failed").increment();
+        } finally {
+            core.getMetrics().stop("autosave", START);
+        }
+    }
+    
+    /**
+     * Saves the files that changed and compacts the journal of the performances if needed.
+     * The staff lists are copy-on-write and the performances are serialized before being
+     * written, so the foreground can keep changing them while they are saved.
+     * @param changed the flags of what changed
+     * @throws IOException if a file could not be saved, in which case its flags are restored
+     */
+    private synchronized void persist(int changed) throws IOException {
+        try {
+            if ((changed & StateMachine.Changed.INFO) != 0)      core.saveCompanyInfo();
+            if ((changed & StateMachine.Changed.SINGERS) != 0)   core.saveSingers();
+            if ((changed & StateMachine.Changed.DANCERS) != 0)   core.saveDancers();
+            if ((changed & StateMachine.Changed.DIRECTORS) != 0) core.saveDirectors();
+            if ((changed & StateMachine.Changed.SHOWS) != 0 || core.needsCompaction())
+                core.compactPerformances();
+            core.syncJournal();
+        } catch (IOException e) {
+            flags.changed.restore(changed);
+            throw e;
+        }
+    }
+    
+    /**
+     * Starts appending a summary of the metrics to the metrics log, periodically
+     */
+    private void startMetricsLog() {
+        if (this.metricsLog != null) return;
+        this.metricsLog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pavarotti-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        this.metricsLog.scheduleAtFixedRate(
+                () -> this.logMetrics(core.getMetrics().summary()),
+                METRICS_PERIOD, METRICS_PERIOD, TimeUnit.SECONDS
+        );
+    }
+    
+    /**
+     * Appends a line to the metrics log, after the time it is written
+     * @param text the text of the line
+     */
+    private void logMetrics(String text) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(FNAME_METRICS, true))) {
+            out.printf("%s %s%n", LocalDateTime.now(), text);
+        } catch (IOException e) {
+            // the metrics never get in the way of the application
+        }
+    }
+    
+    /**
+     * Counts a failed sale or refund by its reason
+     * @param operation the operation, "sell" or "refund"
+     * @param reason the reason it failed
+     */
+    private void failed(String operation, String reason) {
+        core.getMetrics().counter(operation + ".failed." + reason).increment();
     }
     
     @Override
@@ -393,17 +571,27 @@ public class Program extends Controller {
     }
     
     /**
-     * Refreshes the files depending on the changed status reported by the state machine
+     * Refreshes the files depending on the changed status reported by the state machine.
+     * Ticket sales are already in the journal of the performances, which is compacted
+     * into a new snapshot when the performances change or it grows too large.
+     * While autosaving, the save is only requested from the autosave thread; otherwise the
+     * files are saved before returning, the snapshot included.
      * @throws Exception 
      */
     @Override
     public void refresh() throws Exception {
-        if (flags.changed.info)      core.saveCompanyInfo();
-        if (flags.changed.singers)   core.saveSingers();
-        if (flags.changed.dancers)   core.saveDancers();
-        if (flags.changed.directors) core.saveDirectors();
-        if (flags.changed.shows)     core.savePerformances();
-        flags.changed.reset();
+        if (this.autosave != null) {
+            this.requestAutosave();
+            return;
+        }
+        final int CHANGED = flags.changed.take();
+        this.persist(CHANGED);
+        try {
+            core.awaitPersistence();
+        } catch (IOException e) {
+            flags.changed.restore(CHANGED & StateMachine.Changed.SHOWS);
+            throw e;
+        }
     }
     
     /**
@@ -413,7 +601,7 @@ public class Program extends Controller {
     @Override
     public void bindViewer(Viewer viewer) {
         this.currentviewer = viewer;
-        this.currentviewer.bindController(this);
+        this.currentviewer.bindController(this.metered);
     }
     
     /**
@@ -477,7 +665,7 @@ public class Program extends Controller {
         } catch (Exception e) {
             currentviewer.showError("Ocorreu um erro inesperado ao definir as informações da Companhia.\n");
         }
-        flags.changed.info = true;
+        flags.changed.mark(StateMachine.Changed.INFO);
     }
     
     @Override
@@ -557,7 +745,7 @@ public class Program extends Controller {
                         false, core.singers, name, gender, position, birthday,
                         new ArrayList[] {core.singers.getList(), core.dancers.getList()}
                 );
-        flags.changed.singers = ok;
+        if (ok) flags.changed.mark(StateMachine.Changed.SINGERS);
         return ok;
     }
     
@@ -575,7 +763,7 @@ public class Program extends Controller {
                         false, core.dancers, name, gender, position, birthday,
                         new ArrayList[] {core.singers.getList(), core.dancers.getList()}
                 );
-        flags.changed.dancers = ok;
+        if (ok) flags.changed.mark(StateMachine.Changed.DANCERS);
         return ok;
     }
     
@@ -593,7 +781,7 @@ public class Program extends Controller {
                         true, core.directors, name, gender, position, birthday,
                         new ArrayList[] {core.directors.getList()}
                 );
-        flags.changed.directors = ok;
+        if (ok) flags.changed.mark(StateMachine.Changed.DIRECTORS);
         return ok;
     }
     
@@ -631,7 +819,7 @@ public class Program extends Controller {
     @Override
     public boolean deleteSinger(int ID) {
         boolean ok = deleteStaff(core.singers, ID);
-        flags.changed.singers = ok;
+        if (ok) flags.changed.mark(StateMachine.Changed.SINGERS);
         return ok;
     }
     
@@ -642,7 +830,7 @@ public class Program extends Controller {
     @Override
     public boolean deleteDancer(int ID) {
         boolean ok = deleteStaff(core.dancers, ID);
-        flags.changed.dancers = ok;
+        if (ok) flags.changed.mark(StateMachine.Changed.DANCERS);
         return ok;
     }
     
@@ -653,7 +841,7 @@ public class Program extends Controller {
     @Override
     public boolean deleteDirector(int ID) {
         boolean ok = deleteStaff(core.directors, ID);
-        flags.changed.directors = ok;
+        if (ok) flags.changed.mark(StateMachine.Changed.DIRECTORS);
         return ok;
     }
     
@@ -766,7 +954,7 @@ public class Program extends Controller {
     @Override
     public <T extends Person & StaffMember> void modifySinger(int ID, T t) {
         modifyStaff(core.singers, ID, t);
-        flags.changed.singers = true;
+        flags.changed.mark(StateMachine.Changed.SINGERS);
     }
     
     /**
@@ -777,7 +965,7 @@ public class Program extends Controller {
     @Override
     public <T extends Person & StaffMember> void modifyDancer(int ID, T t) {
         modifyStaff(core.dancers, ID, t);
-        flags.changed.dancers = true;
+        flags.changed.mark(StateMachine.Changed.DANCERS);
     }
     
     /**
@@ -788,7 +976,7 @@ public class Program extends Controller {
     @Override
     public <T extends Person & StaffMember> void modifyDirector(int ID, T t) {
         modifyStaff(core.directors, ID, t);
-        flags.changed.directors = true;
+        flags.changed.mark(StateMachine.Changed.DIRECTORS);
     }
     
     /**
@@ -848,16 +1036,16 @@ public class Program extends Controller {
             currentviewer.showError("Ocorreu um erro inesperado ao criar o espetáculo.\n");
             return false;
         }
-        flags.changed.shows = true;
+        flags.changed.mark(StateMachine.Changed.SHOWS);
         return true;
     }
     
     /**
-     * @return the list of performances
+     * @return a copy of the list of performances
      */
     @Override
     public ArrayList<Performance> getAllPerformances() {
-        return core.getPerformances();
+        return core.snapshotPerformances();
     }
     
     /**
@@ -867,17 +1055,7 @@ public class Program extends Controller {
      */
     @Override
     public ArrayList<Performance> searchPerformanceByDate(LocalDateTime after, LocalDateTime before) {
-        core.sortPerformancesByDate();
-        final ArrayList<Performance> list = core.getPerformances();
-        ArrayList<Performance> result = new ArrayList<>();
-        for (int i = 0; i < list.size(); i++) {
-            if (list.get(i).getHall().get(0).getWhen().compareTo(after) >= 0)
-                result.add(list.get(i));
-            if (list.get(i).getHall().get(0).getWhen().compareTo(before) >= 0)
-                break;
-        }
-        core.sortPerformancesByID();
-        return result;
+        return core.searchPerformancesByDate(after, before);
     }
     
     /**
@@ -898,7 +1076,7 @@ public class Program extends Controller {
         boolean ok = false;
         try {
             ok = core.removePerformance(ID);
-            flags.changed.shows = ok;
+            if (ok) flags.changed.mark(StateMachine.Changed.SHOWS);
         } catch (Exception e) {
             currentviewer.showError("Ocorreu um erro inesperado ao remover o espetáculo.\n");
         }
@@ -913,11 +1091,13 @@ public class Program extends Controller {
     @Override
     public boolean modifyPerformanceName(String ID, String name) {
         try {
-            core.getPerformanceByID(ID).setName(name);
+            Performance p = core.getPerformanceByID(ID);
+            p.setName(name);
+            core.modifyPerformance(ID, p);
         } catch (Exception e) {
             return false;
         }
-        flags.changed.shows = true;
+        flags.changed.mark(StateMachine.Changed.SHOWS);
         return true;
     }
     
@@ -929,11 +1109,13 @@ public class Program extends Controller {
     @Override
     public boolean modifyPerformanceWhen(String ID, ArrayList<LocalDateTime> when) {
         try {
-            core.getPerformanceByID(ID).setWhen(when);
+            Performance p = core.getPerformanceByID(ID);
+            p.setWhen(when);
+            core.modifyPerformance(ID, p);
         } catch (Exception e) {
             return false;
         }
-        flags.changed.shows = true;
+        flags.changed.mark(StateMachine.Changed.SHOWS);
         return true;
     }
     
@@ -945,11 +1127,13 @@ public class Program extends Controller {
     @Override
     public boolean modifyPerformanceSingers(String ID, ArrayList<Integer> singers) {
         try {
-            core.getPerformanceByID(ID).setSingers(singers);
+            Performance p = core.getPerformanceByID(ID);
+            p.setSingers(singers);
+            core.modifyPerformance(ID, p);
         } catch (Exception e) {
             return false;
         }
-        flags.changed.shows = true;
+        flags.changed.mark(StateMachine.Changed.SHOWS);
         return true;
     }
     
@@ -961,11 +1145,13 @@ public class Program extends Controller {
     @Override
     public boolean modifyPerformanceDancers(String ID, ArrayList<Integer> dancers) {
         try {
-            core.getPerformanceByID(ID).setDancers(dancers);
+            Performance p = core.getPerformanceByID(ID);
+            p.setDancers(dancers);
+            core.modifyPerformance(ID, p);
         } catch (Exception e) {
             return false;
         }
-        flags.changed.shows = true;
+        flags.changed.mark(StateMachine.Changed.SHOWS);
         return true;
     }
     
@@ -978,10 +1164,11 @@ public class Program extends Controller {
     @Override
     public boolean modifyPerformanceDirectors(String ID, Integer opera, Integer casting) {
         try {
-            core.getPerformanceByID(ID).setCastingDirector(casting);
-            flags.changed.shows = true;
-            core.getPerformanceByID(ID).setOperaDirector(opera);
-            flags.changed.shows = true;
+            Performance p = core.getPerformanceByID(ID);
+            p.setCastingDirector(casting);
+            p.setOperaDirector(opera);
+            core.modifyPerformance(ID, p);
+            flags.changed.mark(StateMachine.Changed.SHOWS);
         } catch (Exception e) {
             return false;
         }
@@ -996,11 +1183,11 @@ public class Program extends Controller {
     @Override
     public boolean modifyPerformancePrice(String ID, Double price) {
         try {
-            core.getPerformanceByID(ID).setBasePrice(price);
+            core.setPerformancePrice(ID, price);
         } catch (Exception e) {
             return false;
         }
-        flags.changed.shows = true;
+        flags.changed.mark(StateMachine.Changed.SHOWS);
         return true;
     }
     
@@ -1101,22 +1288,29 @@ public class Program extends Controller {
     /**
      * @param showID the show ID
      * @param seat the seat
-     * @return the price
-     * @throws TicketSoldException
+     * @param index the index related to the day and time
+     * @return true if sold, false otherwise
+     * @throws TicketSoldException with the seat already sold
      */
     @Override
     public boolean sellTicket(String showID, String seat, int index) throws TicketSoldException {
         try {
             core.sellTicket(showID, seat, index);
-            flags.changed.shows = true;
             return true;
         } catch (PerformanceNotFoundException pnfe) {
+            this.failed("sell", "performance-not-found");
             currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
         } catch (SeatNotFoundException snfe) {
+            this.failed("sell", "seat-not-found");
             currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
         } catch (IndexOutOfBoundsException iobe) {
+            this.failed("sell", "date-not-found");
             currentviewer.showError("Acedeu a uma data não existente.\n");
+        } catch (TicketSoldException tse) {
+            this.failed("sell", "sold");
+            throw tse;
         } catch (Exception e) {
+            this.failed("sell", "error");
             currentviewer.showError("Ocorreu um erro grave a vender o bilhete.\n");
         }
         return false;
@@ -1132,15 +1326,195 @@ public class Program extends Controller {
     public boolean refundTicket(String showID, String seat, int index) throws TicketNotSoldException {
         try {
             core.refundTicket(showID, seat, index);
-            flags.changed.shows = true;
             return true;
         } catch (PerformanceNotFoundException pnfe) {
+            this.failed("refund", "performance-not-found");
+            currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
+        } catch (SeatNotFoundException snfe) {
+            this.failed("refund", "seat-not-found");
+            currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
+        } catch (IndexOutOfBoundsException iobe) {
+            this.failed("refund", "date-not-found");
+            currentviewer.showError("Acedeu a uma data não existente.\n");
+        } catch (Exception e) {
+            this.failed("refund", (e instanceof TicketNotSoldException) ? "not-sold" : "error");
+            currentviewer.showError("Ocorreu um erro grave a devolver o bilhete.\n");
+        }
+        return false;
+    }
+    
+    /**
+     * @param showID the show ID
+     * @param seat the seat
+     * @return the index of the seat, or -1 if not found
+     */
+    @Override
+    public int getSeatIndex(String showID, String seat) {
+        try {
+            return core.getSeatIndex(showID, seat);
+        } catch (PerformanceNotFoundException pnfe) {
+            currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
+        } catch (SeatNotFoundException snfe) {
+            currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
+        } catch (IndexOutOfBoundsException iobe) {
+            currentviewer.showError("Provavelmente não há datas marcadas.\n");
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a pesquisar o lugar.\n");
+        }
+        return -1;
+    }
+    
+    /**
+     * @param showID the show ID
+     * @param seat the index of the seat
+     * @param index the index related to the day and time
+     * @return true if sold, false otherwise
+     */
+    @Override
+    public boolean isTicketSold(String showID, int seat, int index) {
+        try {
+            return core.isTicketSold(showID, seat, index);
+        } catch (PerformanceNotFoundException pnfe) {
+            currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
+        } catch (SeatNotFoundException snfe) {
+            currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
+        } catch (IndexOutOfBoundsException iobe) {
+            currentviewer.showError("Acedeu a uma data não existente.\n");
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a verificar o bilhete.\n");
+        }
+        return false;
+    }
+    
+    /**
+     * @param showID the show ID
+     * @param seat the index of the seat
+     * @param index the index related to the day and time
+     * @return when the ticket was sold
+     * @throws TicketNotSoldException
+     */
+    @Override
+    public LocalDateTime whenTicketSold(String showID, int seat, int index) throws TicketNotSoldException {
+        try {
+            return core.whenTicketSold(showID, seat, index);
+        } catch (PerformanceNotFoundException pnfe) {
+            currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
+        } catch (SeatNotFoundException snfe) {
+            currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
+        } catch (IndexOutOfBoundsException iobe) {
+            currentviewer.showError("Acedeu a uma data não existente.\n");
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a verificar o bilhete.\n");
+        }
+        return LocalDateTime.now();
+    }
+    
+    /**
+     * @param showID the show ID
+     * @param seat the index of the seat
+     * @param index the index related to the day and time
+     * @return true if sold, false otherwise
+     * @throws TicketSoldException with the seat already sold
+     */
+    @Override
+    public boolean sellTicket(String showID, int seat, int index) throws TicketSoldException {
+        try {
+            core.sellTicket(showID, seat, index);
+            return true;
+        } catch (PerformanceNotFoundException pnfe) {
+            this.failed("sell", "performance-not-found");
+            currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
+        } catch (SeatNotFoundException snfe) {
+            this.failed("sell", "seat-not-found");
+            currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
+        } catch (IndexOutOfBoundsException iobe) {
+            this.failed("sell", "date-not-found");
+            currentviewer.showError("Acedeu a uma data não existente.\n");
+        } catch (TicketSoldException tse) {
+            this.failed("sell", "sold");
+            throw tse;
+        } catch (Exception e) {
+            this.failed("sell", "error");
+            currentviewer.showError("Ocorreu um erro grave a vender o bilhete.\n");
+        }
+        return false;
+    }
+    
+    /**
+     * Sells several seats of the same day and time at once: all of them or none
+     * @param showID the show ID
+     * @param index the index related to the day and time
+     * @param seats the seats
+     * @return true if sold, false otherwise
+     * @throws TicketSoldException with the seat already sold, in which case none is sold
+     */
+    @Override
+    public boolean sellTickets(String showID, int index, Collection<String> seats) throws TicketSoldException {
+        try {
+            core.sellTickets(showID, index, seats);
+            return true;
+        } catch (PerformanceNotFoundException pnfe) {
+            this.failed("sell", "performance-not-found");
+            currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
+        } catch (SeatNotFoundException snfe) {
+            this.failed("sell", "seat-not-found");
+            currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
+        } catch (IndexOutOfBoundsException iobe) {
+            this.failed("sell", "date-not-found");
+            currentviewer.showError("Acedeu a uma data não existente.\n");
+        } catch (TicketSoldException tse) {
+            this.failed("sell", "sold");
+            throw tse;
+        } catch (Exception e) {
+            this.failed("sell", "error");
+            currentviewer.showError("Ocorreu um erro grave a vender os bilhetes.\n");
+        }
+        return false;
+    }
+    
+    /**
+     * @param showID the show ID
+     * @param index the index related to the day and time
+     * @param count the number of contiguous seats
+     * @return the best contiguous available seats, or an empty list if there are none
+     */
+    @Override
+    public ArrayList<String> findBestSeats(String showID, int index, int count) {
+        try {
+            return core.findBestSeats(showID, index, count);
+        } catch (PerformanceNotFoundException pnfe) {
+            currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
+        } catch (IndexOutOfBoundsException iobe) {
+            currentviewer.showError("Acedeu a uma data não existente.\n");
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a procurar lugares.\n");
+        }
+        return new ArrayList<>();
+    }
+    
+    /**
+     * @param showID the show ID
+     * @param seat the index of the seat
+     * @param index the index related to the day and time
+     * @return true if refunded, false otherwise
+     * @throws TicketNotSoldException
+     */
+    @Override
+    public boolean refundTicket(String showID, int seat, int index) throws TicketNotSoldException {
+        try {
+            core.refundTicket(showID, seat, index);
+            return true;
+        } catch (PerformanceNotFoundException pnfe) {
+            this.failed("refund", "performance-not-found");
             currentviewer.showError("O espetáculo " + pnfe.getMessage() + " não existe!\n");
         } catch (SeatNotFoundException snfe) {
+            this.failed("refund", "seat-not-found");
             currentviewer.showError("O lugar " + snfe.getMessage() + " não existe!\n");
         } catch (IndexOutOfBoundsException iobe) {
+            this.failed("refund", "date-not-found");
             currentviewer.showError("Acedeu a uma data não existente.\n");
         } catch (Exception e) {
+            this.failed("refund", (e instanceof TicketNotSoldException) ? "not-sold" : "error");
             currentviewer.showError("Ocorreu um erro grave a devolver o bilhete.\n");
         }
         return false;
@@ -1323,4 +1697,134 @@ public class Program extends Controller {
         }
         return -1;
     }
-}
\ No newline at end of file
+    
+    /**
+     * @return the revenue of each performance
+     */
+    @Override
+    public TreeMap<String, Double> revenueByPerformance() {
+        try {
+            return core.stats.getAnalytics().revenueByPerformance();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a calcular a receita dos espetáculos.\n");
+        }
+        return new TreeMap<>();
+    }
+    
+    /**
+     * @return the revenue of each date
+     */
+    @Override
+    public TreeMap<LocalDate, Double> revenueByDate() {
+        try {
+            return core.stats.getAnalytics().revenueByDate();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a calcular a receita por data.\n");
+        }
+        return new TreeMap<>();
+    }
+    
+    /**
+     * @return the revenue of each row of seats
+     */
+    @Override
+    public ArrayList<Double> revenueByRow() {
+        try {
+            return core.stats.getAnalytics().revenueByRow();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a calcular a receita por fila.\n");
+        }
+        return new ArrayList<>();
+    }
+    
+    /**
+     * @return the revenue of each sale day
+     */
+    @Override
+    public TreeMap<LocalDate, Double> revenueBySaleDay() {
+        try {
+            return core.stats.getAnalytics().revenueBySaleDay();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a calcular a receita por dia de venda.\n");
+        }
+        return new TreeMap<>();
+    }
+    
+    /**
+     * @return the occupancy of each performance, in percentage
+     */
+    @Override
+    public TreeMap<String, Double> occupancyByPerformance() {
+        try {
+            return core.stats.getAnalytics().occupancyByPerformance();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a calcular a taxa de ocupação.\n");
+        }
+        return new TreeMap<>();
+    }
+    
+    /**
+     * @return the occupancy of all the performances, in percentage
+     */
+    @Override
+    public double occupancy() {
+        try {
+            return core.stats.getAnalytics().occupancy();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a calcular a taxa de ocupação.\n");
+        }
+        return -1.;
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return the tickets sold by days before the dates of the performance
+     */
+    @Override
+    public TreeMap<Long, Long> salesVelocity(String ID) {
+        try {
+            return core.stats.getAnalytics().salesVelocity(ID);
+        } catch (PerformanceNotFoundException e) {
+            currentviewer.showError("O espetáculo " + e.getMessage() + " não existe!\n");
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a calcular o ritmo de vendas.\n");
+        }
+        return null;
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return the tickets sold in each hour with sales
+     */
+    @Override
+    public TreeMap<LocalDateTime, Long> hourlySales(String ID) {
+        try {
+            SalesTimeline.Histogram histogram = core.stats.getTimeline().hourly(ID);
+            if (histogram == null)
+                currentviewer.showError("O espetáculo " + ID + " não existe!\n");
+            else
+                return histogram.toMap();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a obter as vendas por hora.\n");
+        }
+        return null;
+    }
+    
+    /**
+     * @param ID the performance ID
+     * @return the tickets sold in each day with sales
+     */
+    @Override
+    public TreeMap<LocalDateTime, Long> dailySales(String ID) {
+        try {
+            SalesTimeline.Histogram histogram = core.stats.getTimeline().daily(ID);
+            if (histogram == null)
+                currentviewer.showError("O espetáculo " + ID + " não existe!\n");
+            else
+                return histogram.toMap();
+        } catch (Exception e) {
+            currentviewer.showError("Ocorreu um erro grave a obter as vendas por dia.\n");
+        }
+        return null;
+    }
+}
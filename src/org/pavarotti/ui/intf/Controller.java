@@ -18,6 +18,8 @@ package org.pavarotti.ui.intf;
 
 import java.time.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeMap;
 
 import org.pavarotti.core.intf.*;
 import org.pavarotti.core.components.*;
@@ -99,6 +101,13 @@ public abstract class Controller {
     public abstract LocalDateTime whenTicketSold(String showID, String seat, int index) throws TicketNotSoldException;
     public abstract boolean sellTicket(String showID, String seat, int index) throws TicketSoldException;
     public abstract boolean refundTicket(String showID, String seat, int index) throws TicketNotSoldException;
+    public abstract int getSeatIndex(String showID, String seat);
+    public abstract boolean isTicketSold(String showID, int seat, int index);
+    public abstract LocalDateTime whenTicketSold(String showID, int seat, int index) throws TicketNotSoldException;
+    public abstract boolean sellTicket(String showID, int seat, int index) throws TicketSoldException;
+    public abstract boolean sellTickets(String showID, int index, Collection<String> seats) throws TicketSoldException;
+    public abstract ArrayList<String> findBestSeats(String showID, int index, int count);
+    public abstract boolean refundTicket(String showID, int seat, int index) throws TicketNotSoldException;
     public abstract boolean hasAvailableTickets(String showID, int index);
     public abstract Integer ticketsAvailable(String showID, int index);
     public abstract Integer ticketsSold(String showID, int index);
@@ -112,4 +121,13 @@ public abstract class Controller {
     public abstract String mostWatchedPerformance();
     public abstract String leastWatchedPerformance();
     public abstract long sumAllSpectators(String ID);
+    public abstract TreeMap<String, Double> revenueByPerformance();
+    public abstract TreeMap<LocalDate, Double> revenueByDate();
+    public abstract ArrayList<Double> revenueByRow();
+    public abstract TreeMap<LocalDate, Double> revenueBySaleDay();
+    public abstract TreeMap<String, Double> occupancyByPerformance();
+    public abstract double occupancy();
+    public abstract TreeMap<Long, Long> salesVelocity(String ID);
+    public abstract TreeMap<LocalDateTime, Long> hourlySales(String ID);
+    public abstract TreeMap<LocalDateTime, Long> dailySales(String ID);
 }
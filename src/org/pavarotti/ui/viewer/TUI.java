@@ -127,9 +127,10 @@ public class TUI implements Viewer {
         modifyperformances.addItem("SAIR"                 , Menu.NOTHING, true);
         
         tickets = new Menu("VENDA DE BILHETES");
-        tickets.addItem("Venda"    , () -> TicketMgr.sell());
-        tickets.addItem("Devolução", () -> TicketMgr.refund());
-        tickets.addItem("SAIR"     , Menu.NOTHING, true);
+        tickets.addItem("Venda"           , () -> TicketMgr.sell());
+        tickets.addItem("Devolução"       , () -> TicketMgr.refund());
+        tickets.addItem("Melhores lugares", () -> TicketMgr.best());
+        tickets.addItem("SAIR"            , Menu.NOTHING, true);
         
         stats = new Menu("ESTATÍSTICAS");
         stats.addItem("Total de espetadores de um espetáculo"   , () -> StatMgr.sumAllSpectators());
@@ -138,6 +139,14 @@ public class TUI implements Viewer {
         stats.addItem("Dia com menos espetadores num espetáculo", () -> StatMgr.worstPerformanceDay());
         stats.addItem("Espetáculo mais visto"                   , () -> StatMgr.mostWatchedPerformance());
         stats.addItem("Espetáculo menos visto"                  , () -> StatMgr.leastWatchedPerformance());
+        stats.addItem("Receita por espetáculo"                  , () -> StatMgr.revenueByPerformance());
+        stats.addItem("Receita por data"                        , () -> StatMgr.revenueByDate());
+        stats.addItem("Receita por fila"                        , () -> StatMgr.revenueByRow());
+        stats.addItem("Receita por dia de venda"                , () -> StatMgr.revenueBySaleDay());
+        stats.addItem("Taxa de ocupação"                        , () -> StatMgr.occupancy());
+        stats.addItem("Ritmo de vendas de um espetáculo"        , () -> StatMgr.salesVelocity());
+        stats.addItem("Vendas por dia de um espetáculo"         , () -> StatMgr.dailySales());
+        stats.addItem("Vendas por hora de um espetáculo"        , () -> StatMgr.hourlySales());
         stats.addItem("SAIR", Menu.NOTHING, true);
     }
 
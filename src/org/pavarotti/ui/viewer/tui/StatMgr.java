@@ -18,7 +18,12 @@ package org.pavarotti.ui.viewer.tui;
 
 import org.pavarotti.ui.intf.*;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  *
@@ -137,4 +142,125 @@ public class StatMgr {
         view.showMessage("Total de espetadores: " + sum.toString() + "\n");
         Flow.pause();
     }
-}
\ No newline at end of file
+    
+    /**
+     * Revenue of each performance
+     */
+    public static void revenueByPerformance() {
+        view.showMessage("=== Receita por espetáculo ===\n");
+        TreeMap<String, Double> revenue = control.revenueByPerformance();
+        double total = 0.0;
+        for (Map.Entry<String, Double> e : revenue.entrySet()) {
+            view.showMessage(String.format("\t%-12s %12.2f€\n", e.getKey(), e.getValue()));
+            total += e.getValue();
+        }
+        view.showMessage(String.format("\t%-12s %12.2f€\n", "Total", total));
+        Flow.pause();
+    }
+    
+    /**
+     * Revenue of each date of the performances
+     */
+    public static void revenueByDate() {
+        view.showMessage("=== Receita por data ===\n");
+        for (Map.Entry<LocalDate, Double> e : control.revenueByDate().entrySet())
+            view.showMessage(String.format("\t%s %12.2f€\n", e.getKey(), e.getValue()));
+        Flow.pause();
+    }
+    
+    /**
+     * Revenue of each row of seats
+     */
+    public static void revenueByRow() {
+        view.showMessage("=== Receita por fila ===\n");
+        ArrayList<Double> revenue = control.revenueByRow();
+        for (int r = 0; r < revenue.size(); r++)
+            view.showMessage(String.format("\t%c %12.2f€\n", (char)((int)'A' + r), revenue.get(r)));
+        Flow.pause();
+    }
+    
+    /**
+     * Revenue of the tickets sold on each day
+     */
+    public static void revenueBySaleDay() {
+        view.showMessage("=== Receita por dia de venda ===\n");
+        for (Map.Entry<LocalDate, Double> e : control.revenueBySaleDay().entrySet())
+            view.showMessage(String.format("\t%s %12.2f€\n", e.getKey(), e.getValue()));
+        Flow.pause();
+    }
+    
+    /**
+     * Occupancy of each performance and of all of them
+     */
+    public static void occupancy() {
+        view.showMessage("=== Taxa de ocupação ===\n");
+        for (Map.Entry<String, Double> e : control.occupancyByPerformance().entrySet())
+            view.showMessage(String.format("\t%-12s %6.2f%%\n", e.getKey(), e.getValue()));
+        final double TOTAL = control.occupancy();
+        if (TOTAL >= 0)
+            view.showMessage(String.format("\t%-12s %6.2f%%\n", "Total", TOTAL));
+        Flow.pause();
+    }
+    
+    /**
+     * Sales velocity of a performance
+     */
+    public static void salesVelocity() {
+        view.showMessage("=== Ritmo de vendas de um espetáculo ===\n");
+        String ID = PerformanceMgr.getID(false);
+        if (ID.isEmpty()) return;
+        TreeMap<Long, Long> sales = control.salesVelocity(ID);
+        if (sales == null) {
+            view.showError("Não foi possível determinar o ritmo de vendas.\n");
+            Flow.pause();
+            return;
+        }
+        long total = 0;
+        view.showMessage("\tDias antes | Vendidos | Acumulado\n");
+        for (Map.Entry<Long, Long> e : sales.descendingMap().entrySet()) {
+            total += e.getValue();
+            view.showMessage(String.format("\t%10d | %8d | %9d\n", e.getKey(), e.getValue(), total));
+        }
+        Flow.pause();
+    }
+    
+    /**
+     * Tickets sold per day of a performance
+     */
+    public static void dailySales() {
+        view.showMessage("=== Vendas por dia de um espetáculo ===\n");
+        String ID = PerformanceMgr.getID(false);
+        if (ID.isEmpty()) return;
+        showSales(control.dailySales(ID), "yyyy-MM-dd");
+    }
+    
+    /**
+     * Tickets sold per hour of a performance
+     */
+    public static void hourlySales() {
+        view.showMessage("=== Vendas por hora de um espetáculo ===\n");
+        String ID = PerformanceMgr.getID(false);
+        if (ID.isEmpty()) return;
+        showSales(control.hourlySales(ID), "yyyy-MM-dd HH:00");
+    }
+    
+    /**
+     * Shows the tickets sold in each period with sales and the running total
+     * @param sales the tickets sold by the start of each period
+     * @param pattern the pattern of the periods
+     */
+    private static void showSales(TreeMap<LocalDateTime, Long> sales, String pattern) {
+        if (sales == null) {
+            view.showError("Não foi possível determinar as vendas.\n");
+            Flow.pause();
+            return;
+        }
+        final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern(pattern);
+        long total = 0;
+        for (Map.Entry<LocalDateTime, Long> e : sales.entrySet()) {
+            total += e.getValue();
+            view.showMessage(String.format("\t%-16s | %6d | %8d\n", e.getKey().format(FORMAT), e.getValue(), total));
+        }
+        Flow.pause();
+    }
+}
@@ -22,6 +22,7 @@ import org.util.Menu;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import org.dma.io.Read;
 
 /**
@@ -91,29 +92,37 @@ public class TicketMgr {
             } while (!is_available);
             
             showHall(indperf, indtick);
-            String seat = "";
+            ArrayList<String> seats = new ArrayList<>();
             boolean ok = false;
             do {
                 try {
-                    view.showMessage("Indique o lugar, de A01 a J20: ");
-                    seat = Read.tryAsString().toUpperCase();
-                    ok = control.sellTicket(indperf, seat, indtick);
+                    view.showMessage("Indique o lugar, de A01 a J20 (vários separados por espaços): ");
+                    seats = new ArrayList<>(Arrays.asList(Read.tryAsString().toUpperCase().trim().split("[\\s,;]+")));
+                    if (seats.size() == 1)
+                        ok = control.sellTicket(indperf, seats.get(0), indtick);
+                    else
+                        ok = control.sellTickets(indperf, indtick, seats);
                     if (!ok) {
-                        view.showWarning("Não foi possível vender o bilhete.\n\n");
+                        view.showWarning("Não foi possível vender os bilhetes.\n\n");
                         return;
                     }
                 } catch (TicketSoldException e) {
-                    view.showError("Este lugar já está vendido!\n");
+                    if (seats.size() == 1)
+                        view.showError("O lugar " + e.getMessage() + " já está vendido!\n");
+                    else
+                        view.showError("O lugar " + e.getMessage() + " já está vendido! Nenhum bilhete foi vendido.\n");
                 }
             } while (!ok);
             
             if (!requestConfirmation("==> VENDER BILHETE? (S/N) ", "Venda cancelada pelo operador.\n\n"))
                 return;
             
-            view.showInfo("Bilhete vendido com sucesso.\n");
+            view.showInfo((seats.size() == 1) ? "Bilhete vendido com sucesso.\n" : "Bilhetes vendidos com sucesso.\n");
             view.showMessage("\tDia e hora: " + LIST.get(indtick).toString() + "\n");
-            view.showMessage("\t     Lugar: " + seat + "\n\n");
-            view.showMessage("\t     Preço: " + control.getTicketPrice(indperf, seat) + "€\n\n");
+            for (String seat : seats) {
+                view.showMessage("\t     Lugar: " + seat + "\n");
+                view.showMessage("\t     Preço: " + control.getTicketPrice(indperf, seat) + "€\n\n");
+            }
             
         } catch (Exception e) {
             view.showError("Ocorreu um erro inesperado no sistema de venda de bilhetes.\n");
@@ -177,6 +186,67 @@ public class TicketMgr {
         }
     }
     
+    /**
+     * Finds and sells the best contiguous seats
+     */
+    public static void best() {
+        view.showMessage("=== MELHORES LUGARES ===\n");
+        try {
+            view.showMessage("Indique o espetáculo por ID:\n");
+            String indperf = PerformanceMgr.getID(false);
+            if (indperf.isEmpty()) return;
+            
+            final ArrayList<LocalDateTime> LIST = PerformanceMgr.getOnlyWhensByID(indperf);
+            if (LIST.isEmpty()) return;
+            loadMenu(LIST, indperf);
+            
+            short indtick;
+            whenmenu.show();
+            indtick = whenmenu.getOption("Selecione: ", "Opção inexistente.", "Opção inválida.");
+            if (indtick == whenmenu.getExit()) {
+                view.showInfo("Operação cancelada pelo operador.\n\n");
+                return;
+            }
+            indtick--;
+            
+            int count;
+            do {
+                view.showMessage("Quantos lugares juntos? ");
+                count = Read.tryAsInt();
+            } while (count <= 0);
+            
+            final ArrayList<String> SEATS = control.findBestSeats(indperf, indtick, count);
+            if (SEATS.isEmpty()) {
+                view.showWarning("Não há " + count + " lugares juntos disponíveis.\n\n");
+                return;
+            }
+            
+            double total = 0.0;
+            view.showMessage("LUGARES ENCONTRADOS:\n");
+            for (String seat : SEATS) {
+                final Double PRICE = control.getTicketPrice(indperf, seat);
+                view.showMessage("\t" + seat + ": " + PRICE + "€\n");
+                total += PRICE;
+            }
+            view.showMessage("\t Total: " + total + "€\n\n");
+            
+            if (!requestConfirmation("==> VENDER BILHETES? (S/N) ", "Venda cancelada pelo operador.\n\n"))
+                return;
+            
+            try {
+                if (control.sellTickets(indperf, indtick, SEATS))
+                    view.showInfo("Bilhetes vendidos com sucesso.\n\n");
+                else
+                    view.showWarning("Não foi possível vender os bilhetes.\n\n");
+            } catch (TicketSoldException e) {
+                view.showError("O lugar " + e.getMessage() + " foi vendido entretanto! Nenhum bilhete foi vendido.\n\n");
+            }
+            
+        } catch (Exception e) {
+            view.showError("Ocorreu um erro inesperado no sistema de venda de bilhetes.\n");
+        }
+    }
+    
     // -------------------------------------------------------------------------
     private static void loadMenu(final ArrayList<LocalDateTime> LIST, String indperf) {
         Integer available, sold;
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of named counters, timers and gauges.
+ * Counters and timers are updated with LongAdder, so recording from many threads
+ * never blocks nor contends on a single variable; reading them adds up the cells.
+ * @author Ovelhas do Presépio
+ */
+public class Metrics {
+    /**
+     * A count of events
+     */
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+        
+        /**
+         * Counts one event
+         */
+        public void increment() {
+            this.count.increment();
+        }
+        
+        /**
+         * @param n the number of events to count
+         */
+        public void add(long n) {
+            this.count.add(n);
+        }
+        
+        /**
+         * @return the number of events
+         */
+        public long get() {
+            return this.count.sum();
+        }
+    }
+    
+    /**
+     * The number, total and maximum duration of timed events, in nanoseconds
+     */
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+        
+        /**
+         * @param nanos the duration of an event, in nanoseconds
+         */
+        public void record(long nanos) {
+            this.count.increment();
+            this.total.add(nanos);
+            this.max.accumulate(nanos);
+        }
+        
+        /**
+         * @return the number of events
+         */
+        public long getCount() {
+            return this.count.sum();
+        }
+        
+        /**
+         * @return the total duration, in nanoseconds
+         */
+        public long getTotal() {
+            return this.total.sum();
+        }
+        
+        /**
+         * @return the longest duration, in nanoseconds
+         */
+        public long getMax() {
+            return this.max.get();
+        }
+        
+        /**
+         * @return the mean duration, in nanoseconds, or 0 if there are no events
+         */
+        public long getMean() {
+            final long COUNT = this.getCount();
+            return (COUNT == 0) ? 0 : this.getTotal() / COUNT;
+        }
+    }
+    
+    private final ConcurrentHashMap<String, Counter>      counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer>        timers   = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges   = new ConcurrentHashMap<>();
+    
+    /**
+     * @param name the name of the counter
+     * @return the counter, created if needed
+     */
+    public Counter counter(String name) {
+        Counter c = this.counters.get(name);
+        return (c != null) ? c : this.counters.computeIfAbsent(name, k -> new Counter());
+    }
+    
+    /**
+     * @param name the name of the timer
+     * @return the timer, created if needed
+     */
+    public Timer timer(String name) {
+        Timer t = this.timers.get(name);
+        return (t != null) ? t : this.timers.computeIfAbsent(name, k -> new Timer());
+    }
+    
+    /**
+     * @param name the name of the gauge
+     * @param value what gives the current value of the gauge
+     */
+    public void gauge(String name, LongSupplier value) {
+        this.gauges.put(name, value);
+    }
+    
+    /**
+     * @return the start of an event, to be given to stop
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+    
+    /**
+     * Records an event in a timer
+     * @param name the name of the timer
+     * @param start the start of the event, as given by start
+     */
+    public void stop(String name, long start) {
+        this.timer(name).record(System.nanoTime() - start);
+    }
+    
+    /**
+     * @return every metric, one per line, sorted by name; durations in microseconds
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Counter> e : new TreeMap<>(this.counters).entrySet())
+            sb.append(String.format("counter %-40s %d%n", e.getKey(), e.getValue().get()));
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(this.gauges).entrySet())
+            sb.append(String.format("gauge   %-40s %d%n", e.getKey(), e.getValue().getAsLong()));
+        for (Map.Entry<String, Timer> e : new TreeMap<>(this.timers).entrySet()) {
+            final Timer T = e.getValue();
+            sb.append(String.format("timer   %-40s count=%d mean=%.1fus max=%.1fus total=%.1fms%n",
+                    e.getKey(), T.getCount(), T.getMean() / 1e3, T.getMax() / 1e3, T.getTotal() / 1e6));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * @return a single line with the counters, the gauges and the number of events of each timer
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Counter> e : new TreeMap<>(this.counters).entrySet())
+            sb.append(e.getKey()).append('=').append(e.getValue().get()).append(' ');
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(this.gauges).entrySet())
+            sb.append(e.getKey()).append('=').append(e.getValue().getAsLong()).append(' ');
+        for (Map.Entry<String, Timer> e : new TreeMap<>(this.timers).entrySet())
+            sb.append(e.getKey()).append('=').append(e.getValue().getCount()).append(' ');
+        return sb.toString().trim();
+    }
+}
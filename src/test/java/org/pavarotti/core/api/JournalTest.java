@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.pavarotti.core.components.Performance;
+import org.pavarotti.core.components.VenueLayout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery of the journal after a crash, and sales made while it is compacted
+ * @author Ovelhas do Presépio
+ */
+class JournalTest {
+    private static final String      SHOW   = "P1";
+    private static final long        MILLIS = 1_560_000_000_000L;
+    private static final VenueLayout LAYOUT = VenueLayout.of(320, 64);
+    private static final int         RECORD = 8 + 1 + 2 + SHOW.length() + 4 + 4 + 8;     // a sale: length, payload and checksum
+    
+    @TempDir
+    File dir;
+    
+    /**
+     * @return a journal on the temporary directory, replayed
+     * @throws IOException
+     */
+    private Journal journal() throws IOException {
+        final Journal JOURNAL = new Journal();
+        JOURNAL.setFileName(new File(this.dir, "perfshow.dat.jnl").getPath());
+        JOURNAL.replay(r -> { });
+        return JOURNAL;
+    }
+    
+    /**
+     * @param generation the generation
+     * @return the file of the generation
+     */
+    private File generation(int generation) {
+        return new File(this.dir, "perfshow.dat.jnl." + generation);
+    }
+    
+    /**
+     * Replays a journal as if the program had just started
+     * @return the seats of the sales read, in order
+     * @throws IOException
+     */
+    private List<Integer> replaySeats() throws IOException {
+        final Journal JOURNAL = new Journal();
+        final List<Integer> SEATS = new ArrayList<>();
+        JOURNAL.setFileName(new File(this.dir, "perfshow.dat.jnl").getPath());
+        JOURNAL.replay(r -> {
+            assertEquals(Journal.SELL, r.type);
+            assertEquals(SHOW, r.ID);
+            assertEquals(MILLIS + r.seat, r.millis);
+            SEATS.add(r.seat);
+        });
+        JOURNAL.close();
+        return SEATS;
+    }
+    
+    /**
+     * @param journal the journal
+     * @param seats the seats to log as sold
+     * @throws IOException
+     */
+    private static void sell(Journal journal, int... seats) throws IOException {
+        for (int seat : seats)
+            journal.logSell(SHOW, 0, seat, MILLIS + seat);
+    }
+    
+    @Test
+    void replayStopsAtATruncatedRecordAndAppendsToTheNextGeneration() throws IOException {
+        final Journal JOURNAL = this.journal();
+        sell(JOURNAL, 0, 1, 2);
+        JOURNAL.close();
+        assertEquals(3 * RECORD, this.generation(0).length());
+        
+        try (RandomAccessFile f = new RandomAccessFile(this.generation(0), "rw")) {
+            f.setLength(2 * RECORD + RECORD / 2);
+        }
+        assertEquals(Arrays.asList(0, 1), this.replaySeats());
+        
+        final Journal RECOVERED = this.journal();
+        sell(RECOVERED, 5, 6);
+        RECOVERED.close();
+        assertTrue(this.generation(1).isFile());
+        assertEquals(2 * RECORD, this.generation(1).length());
+        assertEquals(Arrays.asList(0, 1, 5, 6), this.replaySeats());
+    }
+    
+    @Test
+    void replayStopsAtADamagedRecord() throws IOException {
+        final Journal JOURNAL = this.journal();
+        sell(JOURNAL, 0, 1, 2, 3);
+        JOURNAL.close();
+        
+        try (RandomAccessFile f = new RandomAccessFile(this.generation(0), "rw")) {
+            f.seek(RECORD + RECORD / 2);
+            final int BYTE = f.read();
+            f.seek(RECORD + RECORD / 2);
+            f.write(BYTE ^ 0x10);
+        }
+        assertEquals(Arrays.asList(0), this.replaySeats());
+    }
+    
+    @Test
+    void compactionOnlyDiscardsTheGenerationsItSaved() throws IOException {
+        final Journal JOURNAL = this.journal();
+        sell(JOURNAL, 0, 1);
+        final int GENERATION = JOURNAL.rotate();
+        sell(JOURNAL, 2, 3);
+        JOURNAL.discardUpTo(GENERATION);
+        sell(JOURNAL, 4);
+        JOURNAL.close();
+        
+        assertFalse(this.generation(GENERATION).exists());
+        assertEquals(3 * RECORD, JOURNAL.getSize());
+        assertEquals(Arrays.asList(2, 3, 4), this.replaySeats());
+    }
+    
+    /**
+     * @param mapped true for seats kept in the seat file
+     * @return a company keeping its performances in the temporary directory
+     */
+    private Company company(boolean mapped) {
+        final Company COMPANY = new Company();
+        COMPANY.setPerformancesFileName(new File(this.dir, "perfshow.dat").getPath());
+        COMPANY.setMappedSeats(mapped);
+        return COMPANY;
+    }
+    
+    /**
+     * Saves a snapshot with one performance and loads it, as the program does on start
+     * @param mapped true for seats kept in the seat file
+     * @return the company loaded
+     * @throws IOException
+     */
+    private Company loadedCompany(boolean mapped) throws IOException {
+        final Company FIRST = this.company(false);
+        FIRST.addPerformance(new Performance(SHOW, "Tosca", 50.0,
+            new ArrayList<>(Arrays.asList(LocalDateTime.of(2019, 6, 8, 21, 0))), LAYOUT));
+        FIRST.savePerformances();
+        final Company COMPANY = this.company(mapped);
+        assertTrue(COMPANY.loadPerformances());
+        return COMPANY;
+    }
+    
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void salesMadeWhileCompactingSurviveAReload(boolean mapped) throws Exception {
+        final Company COMPANY = this.loadedCompany(mapped);
+        final int CAPACITY = COMPANY.hallCapacity(SHOW);
+        
+        final BitSet SOLD = new BitSet(CAPACITY);
+        final Thread SELLER = new Thread(() -> {
+            try {
+                for (int seat = 0; seat < CAPACITY; seat += 2) {
+                    COMPANY.sellTicket(SHOW, seat, 0);
+                    synchronized (SOLD) {
+                        SOLD.set(seat);
+                    }
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        SELLER.start();
+        int compactions = 0;
+        do {
+            COMPANY.compactPerformances();
+            COMPANY.awaitPersistence();
+            compactions++;
+        } while (SELLER.isAlive());
+        SELLER.join();
+        assertTrue(compactions > 1);
+        COMPANY.awaitPersistence();
+        COMPANY.sellTicket(SHOW, 1, 0);
+        SOLD.set(1);
+        COMPANY.syncJournal();
+        
+        final Company RELOADED = this.company(mapped);
+        assertTrue(RELOADED.loadPerformances());
+        for (int seat = 0; seat < CAPACITY; seat++)
+            assertEquals(SOLD.get(seat), RELOADED.isTicketSold(SHOW, seat, 0), "seat " + seat);
+    }
+    
+    @Test
+    void aSaleCutMidRecordIsLostAndTheOthersSurvive() throws Exception {
+        final Company COMPANY = this.loadedCompany(false);
+        for (int seat = 0; seat < 3; seat++)
+            COMPANY.sellTicket(SHOW, seat, 0);
+        COMPANY.syncJournal();
+        
+        final File LAST = this.generation(0);
+        assertEquals(3 * RECORD, LAST.length());
+        try (RandomAccessFile f = new RandomAccessFile(LAST, "rw")) {
+            f.setLength(f.length() - 3);
+        }
+        
+        final Company RELOADED = this.company(false);
+        assertTrue(RELOADED.loadPerformances());
+        assertTrue(RELOADED.isTicketSold(SHOW, 0, 0));
+        assertTrue(RELOADED.isTicketSold(SHOW, 1, 0));
+        assertFalse(RELOADED.isTicketSold(SHOW, 2, 0));
+        RELOADED.sellTicket(SHOW, 2, 0);
+        RELOADED.syncJournal();
+        
+        final Company AGAIN = this.company(false);
+        assertTrue(AGAIN.loadPerformances());
+        for (int seat = 0; seat < 3; seat++)
+            assertTrue(AGAIN.isTicketSold(SHOW, seat, 0), "seat " + seat);
+        assertFalse(AGAIN.isTicketSold(SHOW, 3, 0));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.components;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.pavarotti.core.throwable.TicketNotSoldException;
+import org.pavarotti.core.throwable.TicketSoldException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Concurrent sales and refunds of the seats of a hall, on the heap and mapped
+ * @author Ovelhas do Presépio
+ */
+class ConcertHallConcurrencyTest {
+    private static final VenueLayout LAYOUT  = VenueLayout.of(8, 64);
+    private static final int         THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int         ROUNDS  = 20_000;
+    private static final long        MILLIS  = 1_560_000_000_000L;
+    
+    /**
+     * @param mapped true for seats kept in a mapped buffer, false for the heap
+     * @return a hall with no sales
+     */
+    private static ConcertHall hall(boolean mapped) {
+        final ConcertHall.Prices PRICES = new ConcertHall.Prices(50.0);
+        final LocalDateTime WHEN = LocalDateTime.of(2019, 6, 8, 21, 0);
+        if (!mapped)
+            return new ConcertHall(PRICES, WHEN, LAYOUT);
+        final int CAPACITY = LAYOUT.getCapacity();
+        final ByteBuffer BUFFER = ByteBuffer.allocateDirect(SeatState.Mapped.slotBytes(CAPACITY));
+        return new ConcertHall(PRICES, WHEN, LAYOUT, new SeatState.Mapped(CAPACITY, BUFFER, 0), 0);
+    }
+    
+    /**
+     * Runs a task on every thread at once and waits for all of them
+     * @param task the task, given the number of the thread
+     * @throws InterruptedException
+     */
+    private static void race(IntTask task) throws InterruptedException {
+        final CountDownLatch START = new CountDownLatch(1);
+        final List<Thread> WORKERS = new ArrayList<>();
+        final List<Throwable> FAILURES = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int N = t;
+            final Thread T = new Thread(() -> {
+                try {
+                    START.await();
+                    task.run(N);
+                } catch (Throwable e) {
+                    synchronized (FAILURES) {
+                        FAILURES.add(e);
+                    }
+                }
+            });
+            T.start();
+            WORKERS.add(T);
+        }
+        START.countDown();
+        for (Thread t : WORKERS)
+            t.join();
+        if (!FAILURES.isEmpty())
+            throw new AssertionError(FAILURES.get(0));
+    }
+    
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void concurrentSalesAndRefundsNeverSellASeatTwice(boolean mapped) throws InterruptedException {
+        final ConcertHall HALL = hall(mapped);
+        final int CAPACITY = LAYOUT.getCapacity();
+        final AtomicIntegerArray HELD = new AtomicIntegerArray(CAPACITY);
+        
+        race(t -> {
+            final ThreadLocalRandom RANDOM = ThreadLocalRandom.current();
+            for (int i = 0; i < ROUNDS; i++) {
+                final int SEAT = RANDOM.nextInt(CAPACITY);
+                try {
+                    if (RANDOM.nextBoolean()) {
+                        HALL.sell(SEAT, MILLIS);
+                        HELD.incrementAndGet(SEAT);
+                    } else {
+                        HALL.refund(SEAT);
+                        HELD.decrementAndGet(SEAT);
+                    }
+                } catch (TicketSoldException | TicketNotSoldException e) {
+                    // lost the race for the seat
+                }
+            }
+        });
+        
+        int sold = 0;
+        final int[] ROWS = new int[LAYOUT.getRows()];
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(HALL.isSold(i) ? 1 : 0, HELD.get(i), "sales minus refunds of seat " + i);
+            if (HALL.isSold(i)) {
+                sold++;
+                ROWS[i / LAYOUT.getCols()]++;
+            }
+        }
+        assertEquals(sold, HALL.countSold());
+        for (int r = 0; r < ROWS.length; r++)
+            assertEquals(ROWS[r], HALL.countSold(r), "sold seats of row " + r);
+        assertTrue(HALL.checkCounters());
+    }
+    
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void countersBuiltDuringSalesMatchTheSeats(boolean mapped) throws InterruptedException {
+        final int CAPACITY = LAYOUT.getCapacity();
+        final ConcertHall HALL = hall(mapped);
+        for (int i = 0; i < CAPACITY; i += 2)
+            HALL.markSold(i, MILLIS);
+        HALL.moveSeats(HALL.seats(), HALL.getSlot(), false);    // forget the counters, as after a load
+        
+        race(t -> {
+            final ThreadLocalRandom RANDOM = ThreadLocalRandom.current();
+            for (int i = 0; i < ROUNDS / 4; i++) {
+                final int SEAT = RANDOM.nextInt(CAPACITY);
+                try {
+                    if (t % 2 == 0) HALL.sell(SEAT, MILLIS);
+                    else            HALL.refund(SEAT);
+                } catch (TicketSoldException | TicketNotSoldException e) {
+                    // lost the race for the seat
+                }
+                if (i % 64 == 0)
+                    HALL.countSold(SEAT / LAYOUT.getCols());
+            }
+        });
+        
+        assertTrue(HALL.checkCounters());
+    }
+    
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void soldSeatsAreNeverSeenWithoutTheirSaleTime(boolean mapped) throws InterruptedException {
+        final ConcertHall HALL = hall(mapped);
+        final int CAPACITY = LAYOUT.getCapacity();
+        final AtomicBoolean DONE = new AtomicBoolean();
+        
+        race(t -> {
+            if (t % 2 == 0) {
+                while (!DONE.get())
+                    for (int i = 0; i < CAPACITY; i++)
+                        if (HALL.isSold(i))
+                            assertEquals(MILLIS + i, HALL.getSoldMillis(i), "sale time of seat " + i);
+                return;
+            }
+            for (int i = 0; i < CAPACITY; i++) {
+                try {
+                    HALL.sell(i, MILLIS + i);
+                } catch (TicketSoldException e) {
+                    assertFalse(e.getMessage().contains("1970"), e.getMessage());
+                }
+            }
+            DONE.set(true);
+        });
+        
+        assertEquals(CAPACITY, HALL.countSold());
+    }
+    
+    /**
+     * A task run by each racing thread
+     */
+    @FunctionalInterface
+    private interface IntTask {
+        void run(int thread) throws Exception;
+    }
+}
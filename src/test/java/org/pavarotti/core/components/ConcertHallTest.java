@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.components;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import org.junit.jupiter.api.Test;
+import org.pavarotti.core.throwable.TicketNotSoldException;
+import org.pavarotti.core.throwable.TicketSoldException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Repricing a hall keeps its sales and the prices they were sold at
+ * @author Ovelhas do Presépio
+ */
+class ConcertHallTest {
+    private static final VenueLayout LAYOUT = VenueLayout.of(8, 16);
+    private static final long        MILLIS = 1_560_000_000_000L;     // a whole second
+    
+    /**
+     * @return a hall with no sales
+     */
+    private static ConcertHall hall() {
+        return new ConcertHall(new ConcertHall.Prices(50.0), LocalDateTime.of(2019, 6, 8, 21, 0), LAYOUT);
+    }
+    
+    /**
+     * Saves and loads a hall, as a snapshot does
+     * @param hall the hall
+     * @return the hall loaded
+     * @throws IOException
+     */
+    private static ConcertHall reload(ConcertHall hall) throws IOException {
+        final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+        Codecs.CONCERT_HALL.write(new DataOutputStream(BYTES), hall);
+        return Codecs.CONCERT_HALL.read(new DataInputStream(new ByteArrayInputStream(BYTES.toByteArray())),
+                                        Codecs.CONCERT_HALL.getVersion());
+    }
+    
+    @Test
+    void repricingKeepsTheSalesAndTheirPrices() throws IOException, TicketSoldException, TicketNotSoldException {
+        final ConcertHall HALL = hall();
+        HALL.sell(0, MILLIS);
+        HALL.sell(LAYOUT.getCapacity() - 1, MILLIS + 400);
+        final double FIRST = HALL.getSoldPrice(0);
+        final double LAST  = HALL.getSoldPrice(LAYOUT.getCapacity() - 1);
+        final double UNSOLD = HALL.getPrice(1);
+        
+        HALL.setBasePrice(80.0, MILLIS + 1300);
+        HALL.sell(2, MILLIS + 1500);
+        HALL.sell(3, MILLIS + 2000);
+        for (ConcertHall h : new ConcertHall[] {HALL, reload(HALL)}) {
+            assertEquals(4, h.countSold());
+            assertTrue(h.isSold(0));
+            assertTrue(h.isSold(LAYOUT.getCapacity() - 1));
+            assertFalse(h.isSold(1));
+            assertEquals(FIRST, h.getSoldPrice(0));
+            assertEquals(LAST, h.getSoldPrice(LAYOUT.getCapacity() - 1));
+            assertEquals(h.getPrice(2) * 50.0 / 80.0, h.getSoldPrice(2), 1e-9);
+            assertEquals(h.getPrice(3), h.getSoldPrice(3));
+            assertEquals(UNSOLD * 80.0 / 50.0, h.getPrice(1), 1e-9);
+            assertEquals(80.0, h.getBasePrice());
+        }
+    }
+    
+    @Test
+    void aSeatIsSoldAtThePriceQuotedRightAfterARepricing() throws IOException, TicketSoldException, TicketNotSoldException {
+        final ConcertHall HALL = hall();
+        HALL.sell(0, MILLIS);
+        final double OLD = HALL.getPrice(1);
+        HALL.setBasePrice(80.0);
+        
+        // prices only change on whole seconds: quote and sell within the same one
+        long before;
+        long after;
+        double quote;
+        do {
+            before = System.currentTimeMillis();
+            quote  = HALL.getPrice(1);
+            after  = System.currentTimeMillis();
+        } while (before / 1000 != after / 1000);
+        HALL.sell(1, after);
+        assertEquals(quote, HALL.getSoldPrice(1));
+        assertEquals(quote, reload(HALL).getSoldPrice(1));
+        assertTrue(quote == OLD || quote == OLD * 80.0 / 50.0);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2019 Ovelhas do Presépio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pavarotti.core.components;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.pavarotti.core.intf.Person.Gender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The indexes of a staff checked against linear scans of its list
+ * @author Ovelhas do Presépio
+ */
+class StaffTest {
+    private static final String[] SYLLABLES = {
+        "jo", "sé", "ma", "ria", "an", "tó", "zé", "lu", "ís", "mü", "ller", "çã", "o", "ão", "Ca", "RL", "os", "ine"
+    };
+    
+    /**
+     * @param ID the ID
+     * @param name the name
+     * @return a new member
+     */
+    private static Performer member(int ID, String name) {
+        return new Performer(ID, name, Gender.Other, LocalDate.of(1990, 1, 1), "Tenor", LocalDate.of(2019, 1, 1));
+    }
+    
+    /**
+     * @param random the random generator
+     * @param used the IDs in use, to add the new one to
+     * @return an ID not in use, anywhere in the order of the list
+     */
+    private static int newID(Random random, HashSet<Integer> used) {
+        return newID(random, used, 1_000_000);
+    }
+    
+    /**
+     * @param random the random generator
+     * @param used the IDs in use, to add the new one to
+     * @param bound the bound of the IDs, small to have the IDs collide in the tables
+     * @return an ID not in use, anywhere in the order of the list
+     */
+    private static int newID(Random random, HashSet<Integer> used, int bound) {
+        int ID;
+        do {
+            ID = random.nextInt(bound);
+        } while (!used.add(ID));
+        return ID;
+    }
+    
+    /**
+     * @param random the random generator
+     * @return a name of one to three words, with accents, mixed case and extra spaces
+     */
+    private static String name(Random random) {
+        StringBuilder sb = new StringBuilder();
+        if (random.nextInt(4) == 0) sb.append(' ');
+        final int WORDS = 1 + random.nextInt(3);
+        for (int w = 0; w < WORDS; w++) {
+            if (w > 0) sb.append(random.nextInt(4) == 0 ? "  " : " ");
+            final int PARTS = 1 + random.nextInt(3);
+            for (int p = 0; p < PARTS; p++)
+                sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * @param random the random generator
+     * @param list the members
+     * @return a piece of the name of a member, or a new name, to search for
+     */
+    private static String query(Random random, List<Performer> list) {
+        if (list.isEmpty() || random.nextInt(4) == 0)
+            return name(random).trim();
+        final String NAME = list.get(random.nextInt(list.size())).getName();
+        final int FROM = random.nextInt(NAME.length());
+        final String PIECE = NAME.substring(FROM, FROM + random.nextInt(NAME.length() - FROM + 1));
+        return random.nextBoolean() ? PIECE.toUpperCase(Locale.ROOT) : PIECE;
+    }
+    
+    /**
+     * The folding of the names, written independently of the one of Staff
+     * @param s the text
+     * @return the text in lower case, without accents and with single spaces
+     */
+    private static String fold(String s) {
+        final String BARE = Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{Mn}", "");
+        return BARE.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * @param list the members
+     * @param text the folded text to search for, with a leading space for prefixes
+     * @return the members whose name has the text, by a linear scan
+     */
+    private static ArrayList<Performer> scan(List<Performer> list, String text) {
+        ArrayList<Performer> result = new ArrayList<>();
+        for (Performer p : list)
+            if ((" " + fold(p.getName())).contains(text))
+                result.add(p);
+        return result;
+    }
+    
+    /**
+     * @param list the members
+     * @param text the folded text to search for
+     * @param from the index to start from
+     * @return the index of the first member from the given one whose name has the text, or -1
+     */
+    private static int scanFrom(List<Performer> list, String text, int from) {
+        for (int i = Math.max(from, 0); i < list.size(); i++)
+            if ((" " + fold(list.get(i).getName())).contains(text))
+                return i;
+        return -1;
+    }
+    
+    @Test
+    void namesAreSearchedIgnoringCaseAccentsAndSpaces() {
+        Staff<Performer> staff = new Staff<>();
+        staff.insert(member(1, "José  Carlos"));
+        staff.insert(member(2, "Zé Tó"));
+        staff.insert(member(3, "Ana Müller"));
+        staff.insert(member(4, "Conceição"));
+        
+        assertEquals(0, staff.search("JOSE carlos"));
+        assertEquals(0, staff.search("sé c"));
+        assertEquals(1, staff.search("ze to"));
+        assertEquals(2, staff.search("muller"));
+        assertEquals(3, staff.search("conceicao"));
+        assertEquals(-1, staff.search("joão"));
+        assertEquals(-1, staff.searchFromIndex("jose", 1));
+        assertEquals(Arrays.asList("José  Carlos"), names(staff.getAllByPrefix("car")));
+        assertEquals(Arrays.asList(), names(staff.getAllByPrefix("arl")));
+        assertEquals(Arrays.asList("Ana Müller"), names(staff.getAllByName("Ü")));
+    }
+    
+    @Test
+    void nameSearchesMatchALinearScan() {
+        final Random RANDOM = new Random(24);
+        Staff<Performer> staff = new Staff<>();
+        HashSet<Integer> used = new HashSet<>();
+        for (int op = 0; op < 20_000; op++) {
+            final List<Performer> LIST = staff.getList();
+            final int KIND = RANDOM.nextInt(100);
+            if (KIND < 40 || LIST.isEmpty()) {
+                staff.insert(member(newID(RANDOM, used), name(RANDOM)));
+            } else if (KIND < 45) {
+                ArrayList<Performer> batch = new ArrayList<>();
+                for (int i = RANDOM.nextInt(4); i >= 0; i--)
+                    batch.add(member(newID(RANDOM, used), name(RANDOM)));
+                staff.insertAll(batch);
+            } else if (KIND < 70) {
+                final int AT = RANDOM.nextInt(LIST.size());
+                used.remove(LIST.get(AT).getID());
+                staff.delete(AT);
+            } else if (KIND < 90) {
+                final int AT = RANDOM.nextInt(LIST.size());
+                staff.modify(AT, member(LIST.get(AT).getID(), name(RANDOM)));
+            } else if (KIND < 99) {
+                final int AT = RANDOM.nextInt(LIST.size());
+                used.remove(LIST.get(AT).getID());
+                staff.modify(AT, member(newID(RANDOM, used), name(RANDOM)));
+            } else {
+                used.clear();
+                staff.clear();
+            }
+            
+            final List<Performer> NOW = staff.getList();
+            final String QUERY  = query(RANDOM, NOW);
+            final String FOLDED = fold(QUERY);
+            final int FROM = RANDOM.nextInt(NOW.size() + 1);
+            assertEquals(scan(NOW, FOLDED), staff.getAllByName(QUERY), "name " + QUERY);
+            assertEquals(scan(NOW, " " + FOLDED), staff.getAllByPrefix(QUERY), "prefix " + QUERY);
+            assertEquals(scanFrom(NOW, FOLDED, 0), staff.search(QUERY), "first " + QUERY);
+            assertEquals(scanFrom(NOW, FOLDED, FROM), staff.searchFromIndex(QUERY, FROM), "from " + FROM + " " + QUERY);
+        }
+    }
+    
+    @Test
+    void idSearchesMatchTheListAfterEveryChange() {
+        final Random RANDOM = new Random(25);
+        Staff<Performer> staff = new Staff<>();
+        HashSet<Integer> used = new HashSet<>();
+        ArrayList<Integer> gone = new ArrayList<>();
+        for (int op = 0; op < 30_000; op++) {
+            final List<Performer> LIST = staff.getList();
+            final List<Performer> BEFORE = new ArrayList<>(LIST);
+            final int KIND = RANDOM.nextInt(100);
+            if (KIND < 35 || LIST.isEmpty()) {
+                staff.insert(member(newID(RANDOM, used, 4096), name(RANDOM)));
+            } else if (KIND < 40) {
+                ArrayList<Performer> batch = new ArrayList<>();
+                for (int i = RANDOM.nextInt(5); i >= 0; i--)
+                    batch.add(member(newID(RANDOM, used, 4096), name(RANDOM)));
+                staff.insertAll(batch);
+            } else if (KIND < 75) {
+                final int AT = RANDOM.nextInt(LIST.size());
+                gone.add(LIST.get(AT).getID());
+                used.remove(LIST.get(AT).getID());
+                staff.delete(AT);
+            } else if (KIND < 85) {
+                final int AT = RANDOM.nextInt(LIST.size());
+                staff.modify(AT, member(LIST.get(AT).getID(), name(RANDOM)));
+            } else if (KIND < 99) {
+                final int AT = RANDOM.nextInt(LIST.size());
+                gone.add(LIST.get(AT).getID());
+                used.remove(LIST.get(AT).getID());
+                staff.modify(AT, member(newID(RANDOM, used, 4096), name(RANDOM)));
+            } else {
+                for (Performer p : LIST)
+                    gone.add(p.getID());
+                used.clear();
+                staff.clear();
+            }
+            
+            assertEquals(BEFORE, LIST, "a list handed out changed");
+            final List<Performer> NOW = staff.getList();
+            assertEquals(used.size(), NOW.size());
+            for (int i = 0; i < NOW.size(); i++) {
+                if (i > 0)
+                    assertTrue(NOW.get(i - 1).getID() < NOW.get(i).getID(), "not sorted by ID at " + i);
+                assertEquals(i, staff.search(NOW.get(i).getID()), "position of ID " + NOW.get(i).getID());
+                assertSame(NOW.get(i), staff.peek(i));
+            }
+            for (int k = 0; k < 8 && !gone.isEmpty(); k++) {
+                final int ID = gone.get(RANDOM.nextInt(gone.size()));
+                if (!used.contains(ID))
+                    assertEquals(-1, staff.search(ID), "removed ID " + ID);
+            }
+        }
+    }
+    
+    /**
+     * @param list the members
+     * @return their names
+     */
+    private static List<String> names(List<Performer> list) {
+        ArrayList<String> result = new ArrayList<>();
+        for (Performer p : list)
+            result.add(p.getName());
+        return result;
+    }
+}